@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The {@link StressRunner} runs a task on several threads at once. All threads are released together to maximize
+ * contention, the first failure of any thread fails the test, and threads which don't finish in time are reported
+ * as a deadlock.
+ *
+ * @author Charky - Initial contribution
+ */
+public final class StressRunner {
+
+    /** Time all threads together may take before the run counts as deadlocked */
+    private static final long TIMEOUT = 60;
+
+    /**
+     * A task run repeatedly by every thread.
+     */
+    public interface Task {
+        void run(int thread, int iteration) throws Exception;
+    }
+
+    private StressRunner() {
+    }
+
+    /**
+     * Procedure to run a task concurrently and wait for all threads to finish.
+     *
+     * @param threads Number of threads
+     * @param iterations Number of times each thread runs the task
+     * @param task Task to run
+     */
+    public static void run(int threads, final int iterations, final Task task) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < iterations && failure.get() == null; i++) {
+                            task.run(thread, i);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "stress-" + t);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        start.countDown();
+        if (!done.await(TIMEOUT, TimeUnit.SECONDS)) {
+            throw new AssertionError(done.getCount() + " of " + threads + " threads still running, deadlock?");
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("Thread failed: " + failure.get(), failure.get());
+        }
+    }
+}
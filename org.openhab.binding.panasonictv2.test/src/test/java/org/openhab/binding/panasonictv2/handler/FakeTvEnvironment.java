@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.handler;
+
+import static org.mockito.Mockito.*;
+
+import java.math.BigDecimal;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.smarthome.config.core.Configuration;
+import org.eclipse.smarthome.config.discovery.DiscoveryServiceRegistry;
+import org.eclipse.smarthome.core.storage.Storage;
+import org.eclipse.smarthome.core.thing.ChannelUID;
+import org.eclipse.smarthome.core.thing.Thing;
+import org.eclipse.smarthome.core.thing.ThingStatusInfo;
+import org.eclipse.smarthome.core.thing.ThingUID;
+import org.eclipse.smarthome.core.thing.binding.ThingHandlerCallback;
+import org.eclipse.smarthome.core.thing.binding.builder.ThingBuilder;
+import org.eclipse.smarthome.io.transport.upnp.UpnpIOService;
+import org.jupnp.UpnpService;
+import org.jupnp.model.meta.DeviceDetails;
+import org.jupnp.model.meta.ManufacturerDetails;
+import org.jupnp.model.meta.ModelDetails;
+import org.jupnp.model.meta.RemoteDevice;
+import org.jupnp.model.meta.RemoteDeviceIdentity;
+import org.jupnp.model.meta.RemoteService;
+import org.jupnp.model.types.UDADeviceType;
+import org.jupnp.model.types.UDN;
+import org.jupnp.registry.Registry;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openhab.binding.panasonictv2.PanasonicTV2BindingConstants;
+import org.openhab.binding.panasonictv2.config.PanasonicTV2Configuration;
+import org.openhab.binding.panasonictv2.internal.MediaServer;
+import org.openhab.binding.panasonictv2.internal.service.MediaRendererService;
+
+/**
+ * The {@link FakeTvEnvironment} runs {@link PanasonicTV2Handler}s without a framework or a TV. The UPnP IO service
+ * answers every poll with the same canned values, as a TV idling on one channel would, and the callback applies
+ * status updates to the thing like the thing manager does. The fakes are stub-only mocks, so they don't record
+ * invocations and long runs don't grow the heap.
+ *
+ * @author Charky - Initial contribution
+ */
+public class FakeTvEnvironment {
+
+    static final String MEDIA_INFO = "<DIDL-Lite xmlns:dc=\"http://purl.org/dc/elements/1.1/\" "
+            + "xmlns:upnp=\"urn:schemas-upnp-org:metadata-1-0/upnp/\"><item><dc:title>News</dc:title>"
+            + "<upnp:channelNr>1</upnp:channelNr><upnp:channelName>ONE</upnp:channelName></item></DIDL-Lite>";
+
+    private final AtomicLong invocations = new AtomicLong();
+    private final UpnpIOService upnpIOService;
+    private final ThingHandlerCallback callback;
+    private final DiscoveryServiceRegistry discoveryServiceRegistry;
+    private final UpnpService upnpService;
+    private final Registry registry;
+    private final MediaServer mediaServer;
+
+    public FakeTvEnvironment() throws Exception {
+        upnpIOService = mock(UpnpIOService.class, withSettings().stubOnly().defaultAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                switch (invocation.getMethod().getName()) {
+                    case "isRegistered":
+                        return true;
+                    case "invokeAction":
+                        invocations.incrementAndGet();
+                        return respond(invocation.<String> getArgument(2));
+                    default:
+                        return RETURNS_DEFAULTS.answer(invocation);
+                }
+            }
+        }));
+        callback = mock(ThingHandlerCallback.class, withSettings().stubOnly().defaultAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                if ("statusUpdated".equals(invocation.getMethod().getName())) {
+                    invocation.<Thing> getArgument(0).setStatusInfo(invocation.<ThingStatusInfo> getArgument(1));
+                }
+                return RETURNS_DEFAULTS.answer(invocation);
+            }
+        }));
+        discoveryServiceRegistry = mock(DiscoveryServiceRegistry.class, withSettings().stubOnly());
+        registry = mock(Registry.class, withSettings().stubOnly());
+        upnpService = mock(UpnpService.class, withSettings().stubOnly());
+        when(upnpService.getRegistry()).thenReturn(registry);
+        mediaServer = new MediaServer(Files.createTempDirectory("panasonictv2"));
+    }
+
+    private static Map<String, String> respond(String actionId) {
+        switch (actionId) {
+            case "GetVolume":
+                return Collections.singletonMap("CurrentVolume", "20");
+            case "GetMute":
+                return Collections.singletonMap("CurrentMute", "0");
+            case "GetMediaInfo":
+                return Collections.singletonMap("CurrentURIMetaData", MEDIA_INFO);
+            default:
+                return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * @return UPnP actions invoked on all TVs so far
+     */
+    public long getInvocations() {
+        return invocations.get();
+    }
+
+    /**
+     * Procedure to create and initialize the handler of a TV which is polled over UPnP.
+     *
+     * @param index Number of the TV, determines its thing UID and host name
+     * @param refreshInterval Polling interval in seconds
+     * @return Initialized handler, still OFFLINE until {@link #discover} is called
+     */
+    public PanasonicTV2Handler createHandler(int index, int refreshInterval) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(PanasonicTV2Configuration.HOST_NAME, getHostName(index));
+        properties.put(PanasonicTV2Configuration.PORT, new BigDecimal(55000));
+        properties.put(PanasonicTV2Configuration.REFRESH_INTERVAL, new BigDecimal(refreshInterval));
+        properties.put(PanasonicTV2Configuration.STATE_UPDATE_WINDOW, new BigDecimal(100));
+        properties.put(PanasonicTV2Configuration.CONNECT_TIMEOUT, new BigDecimal(1000));
+        properties.put(PanasonicTV2Configuration.READ_TIMEOUT, new BigDecimal(1000));
+        properties.put(PanasonicTV2Configuration.BREAKER_THRESHOLD, new BigDecimal(5));
+        properties.put(PanasonicTV2Configuration.BREAKER_RESET_TIME, new BigDecimal(30));
+        properties.put(PanasonicTV2Configuration.TRANSPORT, PanasonicTV2Configuration.TRANSPORT_UPNP);
+
+        ThingUID thingUID = new ThingUID(PanasonicTV2BindingConstants.THING_TYPE_PANASONICTV, "tv" + index);
+        Thing thing = ThingBuilder.create(PanasonicTV2BindingConstants.THING_TYPE_PANASONICTV, thingUID)
+                .withConfiguration(new Configuration(properties)).build();
+
+        PanasonicTV2Handler handler = new PanasonicTV2Handler(thing, upnpIOService, discoveryServiceRegistry,
+                upnpService, new InMemoryStorage(), mediaServer);
+        handler.setCallback(callback);
+        handler.initialize();
+        return handler;
+    }
+
+    /**
+     * Procedure to let the registry discover the media renderer of a TV, which starts polling the linked channels.
+     *
+     * @param handler Handler created by {@link #createHandler}
+     * @param index Number the handler was created with
+     */
+    public void discover(PanasonicTV2Handler handler, int index) throws Exception {
+        for (String channel : new String[] { PanasonicTV2BindingConstants.CHANNEL_VOLUME,
+                PanasonicTV2BindingConstants.CHANNEL_MUTE, PanasonicTV2BindingConstants.CHANNEL_CHANNEL }) {
+            handler.channelLinked(new ChannelUID(handler.getThing().getUID(), channel));
+        }
+        handler.remoteDeviceAdded(registry, createMediaRenderer(index));
+    }
+
+    private static RemoteDevice createMediaRenderer(int index) throws Exception {
+        RemoteDeviceIdentity identity = new RemoteDeviceIdentity(new UDN("panasonic-tv-" + index), 1800,
+                new URL("http://" + getHostName(index) + ":55000/dmr/ddd.xml"), null, null);
+        DeviceDetails details = new DeviceDetails("Panasonic TV " + index, new ManufacturerDetails("Panasonic"),
+                new ModelDetails("VIERA"));
+        return new RemoteDevice(identity, new UDADeviceType(MediaRendererService.SERVICE_NAME, 1), details,
+                (RemoteService) null);
+    }
+
+    private static String getHostName(int index) {
+        return "tv-" + index + ".test";
+    }
+
+    /**
+     * A {@link Storage} keeping the values of a single TV in memory.
+     */
+    public static class InMemoryStorage implements Storage<String> {
+
+        private final Map<String, String> values = new ConcurrentHashMap<>();
+
+        @Override
+        public String put(String key, String value) {
+            return value != null ? values.put(key, value) : values.remove(key);
+        }
+
+        @Override
+        public String remove(String key) {
+            return values.remove(key);
+        }
+
+        @Override
+        public boolean containsKey(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public String get(String key) {
+            return values.get(key);
+        }
+
+        @Override
+        public Collection<String> getKeys() {
+            return new ArrayList<>(values.keySet());
+        }
+
+        @Override
+        public Collection<String> getValues() {
+            return new ArrayList<>(values.values());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.handler;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.smarthome.core.thing.ThingStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The {@link PanasonicTV2HandlerScaleTest} starts many TVs polled every second and checks the heap, threads and CPU
+ * each of them costs once polling has settled. The budgets can be tightened or relaxed with system properties,
+ * e.g. -Dpanasonictv2.scale.things=1000. The measurements depend on the machine, so the suite is a benchmark
+ * excluded from the default build and run with -Pbenchmark.
+ *
+ * @author Charky - Initial contribution
+ */
+public class PanasonicTV2HandlerScaleTest {
+
+    private static final int THINGS = Integer.getInteger("panasonictv2.scale.things", 200);
+    private static final int REFRESH_INTERVAL = 1;
+    private static final int SETTLE_TIME = Integer.getInteger("panasonictv2.scale.settleTime", 5);
+    private static final int MEASURE_TIME = Integer.getInteger("panasonictv2.scale.measureTime", 5);
+
+    /** Retained heap per TV in bytes */
+    private static final long HEAP_BUDGET = Long.getLong("panasonictv2.scale.heapBudget", 256 * 1024);
+
+    /** Threads started per TV, the binding is expected to share its pools between all TVs */
+    private static final double THREAD_BUDGET = Double
+            .parseDouble(System.getProperty("panasonictv2.scale.threadBudget", "0.1"));
+
+    /** CPU time per TV and second of polling in nanoseconds */
+    private static final long CPU_BUDGET = Long.getLong("panasonictv2.scale.cpuBudget", 2000000);
+
+    private final List<PanasonicTV2Handler> handlers = new ArrayList<>();
+    private FakeTvEnvironment environment;
+
+    @Before
+    public void setUp() throws Exception {
+        environment = new FakeTvEnvironment();
+    }
+
+    @After
+    public void tearDown() {
+        for (PanasonicTV2Handler handler : handlers) {
+            handler.dispose();
+        }
+        handlers.clear();
+    }
+
+    @Test
+    public void handlersStayWithinBudgetPerThing() throws Exception {
+        // A first TV loads the classes and starts the shared pools, which are not part of the per TV cost
+        startTv(-1);
+        TimeUnit.SECONDS.sleep(SETTLE_TIME);
+
+        int baseThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        long baseHeap = usedHeap();
+
+        for (int i = 0; i < THINGS; i++) {
+            startTv(i);
+        }
+        for (PanasonicTV2Handler handler : handlers) {
+            assertEquals(ThingStatus.ONLINE, handler.getThing().getStatus());
+        }
+        TimeUnit.SECONDS.sleep(SETTLE_TIME);
+
+        long invocations = environment.getInvocations();
+        long cpuTime = processCpuTime();
+        TimeUnit.SECONDS.sleep(MEASURE_TIME);
+        long cpuPerThing = (processCpuTime() - cpuTime) / MEASURE_TIME / THINGS;
+        long polls = environment.getInvocations() - invocations;
+
+        long heapPerThing = (usedHeap() - baseHeap) / THINGS;
+        double threadsPerThing = (double) (ManagementFactory.getThreadMXBean().getThreadCount() - baseThreads)
+                / THINGS;
+
+        assertTrue("TVs not polled, " + polls + " actions in " + MEASURE_TIME + "s",
+                polls >= (long) THINGS * MEASURE_TIME / REFRESH_INTERVAL);
+        assertTrue("Heap per TV " + heapPerThing + " bytes exceeds " + HEAP_BUDGET, heapPerThing <= HEAP_BUDGET);
+        assertTrue("Threads per TV " + threadsPerThing + " exceed " + THREAD_BUDGET,
+                threadsPerThing <= THREAD_BUDGET);
+        assertTrue("CPU per TV " + cpuPerThing + " ns/s exceeds " + CPU_BUDGET, cpuPerThing <= CPU_BUDGET);
+    }
+
+    @Test
+    public void disposeStopsPolling() throws Exception {
+        for (int i = 0; i < THINGS; i++) {
+            startTv(i);
+        }
+        TimeUnit.SECONDS.sleep(2 * REFRESH_INTERVAL);
+
+        tearDown();
+        // A poll running during dispose may still complete
+        TimeUnit.SECONDS.sleep(REFRESH_INTERVAL);
+        long invocations = environment.getInvocations();
+        TimeUnit.SECONDS.sleep(2 * REFRESH_INTERVAL);
+
+        assertEquals("TVs still polled after dispose", invocations, environment.getInvocations());
+    }
+
+    private void startTv(int index) throws Exception {
+        PanasonicTV2Handler handler = environment.createHandler(index, REFRESH_INTERVAL);
+        handlers.add(handler);
+        environment.discover(handler, index);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            TimeUnit.MILLISECONDS.sleep(100);
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+
+    private static long processCpuTime() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.handler;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.smarthome.core.library.types.DecimalType;
+import org.eclipse.smarthome.core.library.types.OnOffType;
+import org.eclipse.smarthome.core.thing.ChannelUID;
+import org.eclipse.smarthome.core.types.Command;
+import org.eclipse.smarthome.core.types.RefreshType;
+import org.junit.Test;
+import org.openhab.binding.panasonictv2.PanasonicTV2BindingConstants;
+import org.openhab.binding.panasonictv2.StressRunner;
+
+/**
+ * Stress tests of the {@link PanasonicTV2Handler} with commands from many threads racing the disposal of the
+ * thing, as happens when a rule fires while the thing is removed or re-initialized.
+ *
+ * @author Charky - Initial contribution
+ */
+public class PanasonicTV2HandlerStressTest {
+
+    private static final int ROUNDS = 10;
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 500;
+    private static final int REFRESH_INTERVAL = 1;
+
+    private static final String[] CHANNELS = { PanasonicTV2BindingConstants.CHANNEL_VOLUME,
+            PanasonicTV2BindingConstants.CHANNEL_MUTE, PanasonicTV2BindingConstants.CHANNEL_POWER,
+            PanasonicTV2BindingConstants.CHANNEL_CHANNEL };
+
+    @Test
+    public void commandsRacingDisposeNeitherFailNorKeepPolling() throws Exception {
+        FakeTvEnvironment environment = new FakeTvEnvironment();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            final PanasonicTV2Handler handler = environment.createHandler(round, REFRESH_INTERVAL);
+            environment.discover(handler, round);
+
+            StressRunner.run(THREADS, ITERATIONS, new StressRunner.Task() {
+                @Override
+                public void run(int thread, int iteration) {
+                    if (thread == 0 && iteration == ITERATIONS / 2) {
+                        handler.dispose();
+                        return;
+                    }
+                    String channel = CHANNELS[(thread + iteration) % CHANNELS.length];
+                    handler.handleCommand(new ChannelUID(handler.getThing().getUID(), channel),
+                            createCommand(channel, iteration));
+                }
+            });
+        }
+
+        // A poll running during dispose may still complete
+        TimeUnit.SECONDS.sleep(REFRESH_INTERVAL);
+        long invocations = environment.getInvocations();
+        TimeUnit.SECONDS.sleep(2 * REFRESH_INTERVAL);
+        assertEquals("TVs still polled after dispose", invocations, environment.getInvocations());
+    }
+
+    private static Command createCommand(String channel, int iteration) {
+        if (iteration % 5 == 0) {
+            return RefreshType.REFRESH;
+        }
+        switch (channel) {
+            case PanasonicTV2BindingConstants.CHANNEL_VOLUME:
+            case PanasonicTV2BindingConstants.CHANNEL_CHANNEL:
+                return new DecimalType(iteration % 100);
+            default:
+                return iteration % 2 == 0 ? OnOffType.ON : OnOffType.OFF;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal;
+
+import static org.junit.Assert.*;
+
+import org.eclipse.smarthome.core.library.types.DecimalType;
+import org.eclipse.smarthome.core.library.types.OnOffType;
+import org.junit.Test;
+import org.openhab.binding.panasonictv2.PanasonicTV2BindingConstants;
+import org.openhab.binding.panasonictv2.StressRunner;
+
+/**
+ * Stress tests of the {@link CommandFilter} with polls, confirmations and commands racing each other.
+ *
+ * @author Charky - Initial contribution
+ */
+public class CommandFilterStressTest {
+
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 20000;
+    private static final String VOLUME = PanasonicTV2BindingConstants.CHANNEL_VOLUME;
+    private static final String POWER = PanasonicTV2BindingConstants.CHANNEL_POWER;
+
+    @Test
+    public void confirmationNeverRevertsUpdate() throws Exception {
+        final CommandFilter filter = new CommandFilter();
+        filter.setMaxAge(60);
+        filter.update(VOLUME, new DecimalType(0));
+
+        StressRunner.run(THREADS, ITERATIONS, new StressRunner.Task() {
+            @Override
+            public void run(int thread, int iteration) {
+                if (thread == 0) {
+                    DecimalType volume = new DecimalType(iteration + 1);
+                    filter.update(VOLUME, volume);
+                    assertEquals(volume, filter.getState(VOLUME));
+                    assertTrue(filter.isNoOp(VOLUME, volume));
+                } else {
+                    filter.confirm(VOLUME);
+                    filter.isNoOp(VOLUME, new DecimalType(iteration));
+                }
+            }
+        });
+
+        assertEquals(new DecimalType(ITERATIONS), filter.getState(VOLUME));
+    }
+
+    @Test
+    public void forgottenPowerIsNeverDropped() throws Exception {
+        final CommandFilter filter = new CommandFilter();
+        filter.setMaxAge(60);
+
+        StressRunner.run(THREADS, ITERATIONS, new StressRunner.Task() {
+            @Override
+            public void run(int thread, int iteration) {
+                if (thread == 0) {
+                    filter.update(POWER, OnOffType.ON);
+                    filter.forget(POWER);
+                    assertFalse(filter.isNoOp(POWER, OnOffType.ON));
+                } else {
+                    filter.confirm(POWER);
+                    filter.getState(POWER);
+                }
+            }
+        });
+
+        assertNull(filter.getState(POWER));
+    }
+}
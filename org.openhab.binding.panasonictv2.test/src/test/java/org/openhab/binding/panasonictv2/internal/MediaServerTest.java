@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the {@link MediaServer} with TVs reading slowly or not at all.
+ *
+ * @author Charky - Initial contribution
+ */
+public class MediaServerTest {
+
+    private static final int TIMEOUT = 500;
+
+    /** Larger than the socket buffers, so a client which doesn't read stalls the transfer */
+    private static final int FILE_SIZE = 16 * 1024 * 1024;
+
+    private Path folder;
+    private MediaServer server;
+    private URL url;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("panasonictv2");
+        Path file = folder.resolve("movie.mp4");
+        byte[] data = new byte[FILE_SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        Files.write(file, data);
+
+        server = new MediaServer(folder, TIMEOUT);
+        url = new URL(server.publish(server.resolve("movie.mp4"), "127.0.0.1"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop();
+        Files.deleteIfExists(folder.resolve("movie.mp4"));
+        Files.deleteIfExists(folder);
+    }
+
+    @Test
+    public void rangesAreServedOnOneConnection() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", url.getPort())) {
+            socket.setSoTimeout(5000);
+            for (int first : new int[] { 0, 1000, FILE_SIZE - 3 }) {
+                request(socket, "Range: bytes=" + first + "-" + (first + 2) + "\r\n");
+                String head = readHead(socket.getInputStream());
+                byte[] body = readBytes(socket.getInputStream(), 3);
+
+                assertTrue(head, head.startsWith("HTTP/1.1 206 Partial Content"));
+                assertTrue(head, head.contains("Content-Length: 3"));
+                assertArrayEquals(new byte[] { (byte) first, (byte) (first + 1), (byte) (first + 2) }, body);
+            }
+        }
+    }
+
+    @Test
+    public void stalledTvIsDisconnected() throws Exception {
+        try (Socket socket = new Socket()) {
+            // Set before connecting, so the TV advertises a small window
+            socket.setReceiveBufferSize(4096);
+            socket.connect(new InetSocketAddress("127.0.0.1", url.getPort()));
+            request(socket, "");
+
+            // Not reading lets the transfer fill the socket buffers and stall
+            TimeUnit.MILLISECONDS.sleep(4 * TIMEOUT);
+
+            socket.setSoTimeout(5000);
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[65536];
+            long received = 0;
+            try {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    received += n;
+                }
+            } catch (SocketException e) {
+                // Reset by the server, disconnected as well
+            }
+            assertTrue("Stalled transfer completed", received < FILE_SIZE);
+        }
+    }
+
+    private void request(Socket socket, String headers) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET " + url.getPath() + " HTTP/1.1\r\nHost: 127.0.0.1\r\n" + headers + "\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Connection closed within the head");
+            }
+            head.write(b);
+            matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : b == '\r' ? 1 : 0;
+        }
+        return new String(head.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] readBytes(InputStream in, int length) throws IOException {
+        byte[] data = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(data, read, length - read);
+            if (n < 0) {
+                throw new IOException("Connection closed within the body");
+            }
+            read += n;
+        }
+        return data;
+    }
+}
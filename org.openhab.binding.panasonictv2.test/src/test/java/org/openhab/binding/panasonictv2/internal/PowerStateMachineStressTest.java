@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.smarthome.core.library.types.StringType;
+import org.junit.Test;
+import org.openhab.binding.panasonictv2.PanasonicTV2BindingConstants;
+import org.openhab.binding.panasonictv2.StressRunner;
+
+/**
+ * Stress tests of the {@link PowerStateMachine} with commands held while the TV responds and disappears.
+ *
+ * @author Charky - Initial contribution
+ */
+public class PowerStateMachineStressTest {
+
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 20000;
+
+    /** Largest number of commands the machine holds */
+    private static final int CAPACITY = 16;
+
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger duplicates = new AtomicInteger();
+
+    @Test
+    public void heldCommandIsReleasedOrDroppedExactlyOnce() throws Exception {
+        final PowerStateMachine machine = new PowerStateMachine();
+        final AtomicInteger held = new AtomicInteger();
+
+        StressRunner.run(THREADS, ITERATIONS, new StressRunner.Task() {
+            @Override
+            public void run(int thread, int iteration) {
+                if (thread % 4 == 0) {
+                    List<PowerStateMachine.HeldCommand> released = machine.responded();
+                    assertTrue("Released " + released.size() + " commands", released.size() <= CAPACITY);
+                    account(released);
+                    if (iteration % 2 == 0) {
+                        machine.lost();
+                    }
+                } else if (machine.mustHold(PanasonicTV2BindingConstants.CHANNEL_KEY_CODE, null, false)) {
+                    PowerStateMachine.HeldCommand dropped = machine.hold(PanasonicTV2BindingConstants.CHANNEL_KEY_CODE,
+                            new StringType(thread + ":" + iteration));
+                    held.incrementAndGet();
+                    if (dropped != null) {
+                        account(dropped);
+                    }
+                }
+            }
+        });
+        account(machine.responded());
+
+        assertEquals(0, duplicates.get());
+        assertEquals(held.get(), seen.size());
+        assertTrue(machine.responded().isEmpty());
+    }
+
+    private void account(List<PowerStateMachine.HeldCommand> commands) {
+        for (PowerStateMachine.HeldCommand command : commands) {
+            account(command);
+        }
+    }
+
+    private void account(PowerStateMachine.HeldCommand command) {
+        if (!seen.add(command.getCommand().toString())) {
+            duplicates.incrementAndGet();
+        }
+    }
+}
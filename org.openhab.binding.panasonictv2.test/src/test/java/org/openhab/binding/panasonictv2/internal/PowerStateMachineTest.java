@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal;
+
+import static org.junit.Assert.*;
+
+import org.eclipse.smarthome.core.library.types.OnOffType;
+import org.junit.Test;
+
+/**
+ * Tests of the power commands the {@link PowerStateMachine} lets through. NRC_POWER toggles, so a power on which
+ * is let through to a TV already on switches it off.
+ *
+ * @author Charky - Initial contribution
+ */
+public class PowerStateMachineTest {
+
+    @Test
+    public void powerOnIsNotSentToTvWhichIsOn() {
+        PowerStateMachine machine = new PowerStateMachine();
+        machine.responded();
+
+        // However long the TV hasn't been polled
+        assertTrue(machine.isNoOp(OnOffType.ON, true));
+        assertTrue(machine.isNoOp(OnOffType.ON, false));
+        assertFalse(machine.isNoOp(OnOffType.OFF, true));
+    }
+
+    @Test
+    public void powerOnIsNotSentToReachableTvOfUnknownState() {
+        PowerStateMachine machine = new PowerStateMachine();
+
+        assertTrue(machine.isNoOp(OnOffType.ON, true));
+        assertFalse(machine.isNoOp(OnOffType.OFF, true));
+    }
+
+    @Test
+    public void powerOnIsSentToTvWhichLeftTheNetwork() {
+        PowerStateMachine machine = new PowerStateMachine();
+        machine.responded();
+        machine.lost();
+
+        assertFalse(machine.isNoOp(OnOffType.ON, false));
+        assertTrue(machine.isNoOp(OnOffType.OFF, false));
+    }
+
+    @Test
+    public void repeatedPowerCommandIsNotSentDuringTransition() {
+        PowerStateMachine machine = new PowerStateMachine();
+        machine.powerCommandSent(OnOffType.ON);
+
+        assertTrue(machine.isNoOp(OnOffType.ON, false));
+        assertFalse(machine.isNoOp(OnOffType.OFF, false));
+
+        machine.responded();
+        machine.powerCommandSent(OnOffType.OFF);
+
+        assertTrue(machine.isNoOp(OnOffType.OFF, true));
+        assertFalse(machine.isNoOp(OnOffType.ON, true));
+    }
+}
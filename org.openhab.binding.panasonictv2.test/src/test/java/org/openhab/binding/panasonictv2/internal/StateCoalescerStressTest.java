@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.smarthome.core.library.types.DecimalType;
+import org.eclipse.smarthome.core.thing.ChannelUID;
+import org.eclipse.smarthome.core.thing.ThingUID;
+import org.eclipse.smarthome.core.types.State;
+import org.junit.After;
+import org.junit.Test;
+import org.openhab.binding.panasonictv2.PanasonicTV2BindingConstants;
+import org.openhab.binding.panasonictv2.StressRunner;
+
+/**
+ * Stress tests of the {@link StateCoalescer} with updates racing scheduled and explicit flushes.
+ *
+ * @author Charky - Initial contribution
+ */
+public class StateCoalescerStressTest {
+
+    private static final int WRITERS = 4;
+    private static final int FLUSHERS = 2;
+    private static final int ITERATIONS = 20000;
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private final ThingUID thingUID = new ThingUID(PanasonicTV2BindingConstants.THING_TYPE_PANASONICTV, "stress");
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void lastStateOfEveryChannelIsPublishedLast() throws Exception {
+        final Map<ChannelUID, Integer> published = new ConcurrentHashMap<>();
+        final AtomicInteger reordered = new AtomicInteger();
+        final StateCoalescer coalescer = new StateCoalescer(scheduler, new StateCoalescer.Publisher() {
+            @Override
+            public void publish(ChannelUID channelUID, State state) {
+                int value = ((DecimalType) state).intValue();
+                Integer previous = published.put(channelUID, value);
+                if (previous != null && previous > value) {
+                    reordered.incrementAndGet();
+                }
+            }
+        });
+        coalescer.setWindow(1);
+
+        final ChannelUID[] channels = new ChannelUID[WRITERS];
+        for (int i = 0; i < WRITERS; i++) {
+            channels[i] = new ChannelUID(thingUID, "channel" + i);
+        }
+
+        StressRunner.run(WRITERS + FLUSHERS, ITERATIONS, new StressRunner.Task() {
+            @Override
+            public void run(int thread, int iteration) {
+                if (thread < WRITERS) {
+                    coalescer.update(channels[thread], new DecimalType(iteration + 1));
+                } else {
+                    coalescer.flush();
+                }
+            }
+        });
+        coalescer.flush();
+
+        assertEquals("States published out of order", 0, reordered.get());
+        for (ChannelUID channel : channels) {
+            assertEquals(Integer.valueOf(ITERATIONS), published.get(channel));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal.protocol;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+import org.junit.Test;
+import org.openhab.binding.panasonictv2.PanasonicTV2BindingConstants;
+
+/**
+ * Tests of the {@link EncryptedSession} payloads, keys and sequence numbers.
+ *
+ * @author Charky - Initial contribution
+ */
+public class EncryptedSessionTest {
+
+    @Test
+    public void pairingPayloadRoundTrips() {
+        EncryptedSession.Keys keys = EncryptedSession.derivePairingKeys(StubTv.CHALLENGE);
+        String payload = "<X_PinCode>1234</X_PinCode>";
+
+        String encrypted = EncryptedSession.encrypt(payload, keys);
+
+        assertEquals(payload, EncryptedSession.decrypt(encrypted, keys));
+        // Random header, the same payload never encrypts the same twice
+        assertNotEquals(encrypted, EncryptedSession.encrypt(payload, keys));
+    }
+
+    @Test
+    public void sessionPayloadRoundTripsAcrossBlockSizes() {
+        EncryptedSession session = new EncryptedSession(StubTv.APPLICATION_ID, StubTv.ENCRYPTION_KEY);
+        StringBuilder payload = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            String encrypted = EncryptedSession.encrypt(payload.toString(), session.getKeys());
+            assertEquals(payload.toString(), session.decrypt(encrypted));
+            payload.append((char) ('a' + i % 26));
+        }
+    }
+
+    @Test
+    public void wrappedCommandsCarryIncreasingSequenceNumbers() {
+        EncryptedSession session = new EncryptedSession(StubTv.APPLICATION_ID, StubTv.ENCRYPTION_KEY);
+        session.open("S1", 41);
+
+        String namespace = PanasonicTV2BindingConstants.UPNP_XMLNS;
+        String first = session
+                .decrypt(session.wrapCommand("X_SendKey", namespace, "<X_KeyEvent>NRC_MUTE-ONOFF</X_KeyEvent>"));
+        String second = session.decrypt(session.wrapCommand("X_GetAppList", namespace, ""));
+
+        assertEquals("S1", StubTv.element(first, "X_SessionId"));
+        assertEquals("00000042", StubTv.element(first, "X_SequenceNumber"));
+        assertEquals("00000043", StubTv.element(second, "X_SequenceNumber"));
+        assertTrue(StubTv.element(first, "X_OriginalCommand").contains("<X_KeyEvent>NRC_MUTE-ONOFF</X_KeyEvent>"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void wrapRequiresOpenSession() {
+        EncryptedSession session = new EncryptedSession(StubTv.APPLICATION_ID, StubTv.ENCRYPTION_KEY);
+        session.open("S1", 1);
+        session.invalidate();
+
+        assertFalse(session.isOpen());
+        session.wrapCommand("X_SendKey", PanasonicTV2BindingConstants.UPNP_XMLNS, "");
+    }
+
+    @Test
+    public void resultWithoutSignatureIsAccepted() {
+        EncryptedSession session = new EncryptedSession(StubTv.APPLICATION_ID, StubTv.ENCRYPTION_KEY);
+        String payload = "<X_SessionId>S1</X_SessionId><X_SeqNum>1</X_SeqNum>";
+        byte[] data = Base64.getDecoder().decode(EncryptedSession.encrypt(payload, session.getKeys()));
+
+        byte[] unsigned = Arrays.copyOf(data, data.length - 32);
+
+        assertEquals(payload, session.decrypt(Base64.getEncoder().encodeToString(unsigned)));
+    }
+
+    @Test
+    public void tamperedPayloadDoesNotDecrypt() {
+        EncryptedSession session = new EncryptedSession(StubTv.APPLICATION_ID, StubTv.ENCRYPTION_KEY);
+        String payload = "<X_SessionId>S1</X_SessionId><X_SeqNum>1</X_SeqNum>";
+        byte[] data = Base64.getDecoder().decode(EncryptedSession.encrypt(payload, session.getKeys()));
+
+        data[20] ^= 1;
+
+        assertNotEquals(payload, session.decrypt(Base64.getEncoder().encodeToString(data)));
+    }
+
+    @Test(expected = CommunicationException.class)
+    public void resultWhichIsNoBase64IsRejected() {
+        new EncryptedSession(StubTv.APPLICATION_ID, StubTv.ENCRYPTION_KEY).decrypt("not base64!");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void challengeWhichIsNoBase64IsRejected() {
+        EncryptedSession.derivePairingKeys("not base64!");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void challengeOfWrongLengthIsRejected() {
+        EncryptedSession.derivePairingKeys(Base64.getEncoder().encodeToString(new byte[8]));
+    }
+}
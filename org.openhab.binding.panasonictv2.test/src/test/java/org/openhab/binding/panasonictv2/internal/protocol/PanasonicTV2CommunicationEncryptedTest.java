@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal.protocol;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.binding.panasonictv2.internal.EventJournal;
+
+/**
+ * Tests of the pairing and the encrypted commands of {@link PanasonicTV2Communication} against a {@link StubTv}
+ * serving /nrc/control_0/.
+ *
+ * @author Charky - Initial contribution
+ */
+public class PanasonicTV2CommunicationEncryptedTest {
+
+    private StubTv tv;
+    private PanasonicTV2Communication communication;
+
+    @Before
+    public void setUp() throws Exception {
+        tv = new StubTv();
+        communication = new PanasonicTV2Communication("127.0.0.1", tv.getPort(), 1000, 1000,
+                new CircuitBreaker(5, 30000, null), null, new EventJournal("tv"), null);
+    }
+
+    @After
+    public void tearDown() {
+        tv.stop();
+    }
+
+    @Test
+    public void pairsWithDisplayedPinCode() {
+        String challenge = communication.requestPinCode("openHAB");
+        EncryptedSession session = communication.authorize(challenge, StubTv.PIN_CODE);
+
+        assertEquals(StubTv.CHALLENGE, challenge);
+        assertEquals(StubTv.APPLICATION_ID, session.getApplicationId());
+        assertEquals(StubTv.ENCRYPTION_KEY, session.getEncryptionKey());
+        assertFalse(session.isOpen());
+    }
+
+    @Test(expected = CommunicationException.class)
+    public void wrongPinCodeIsRejected() {
+        communication.authorize(communication.requestPinCode("openHAB"), "0000");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedChallengeFailsBeforeAuthorizing() {
+        tv.setChallenge("not base64!");
+
+        communication.authorize(communication.requestPinCode("openHAB"), StubTv.PIN_CODE);
+    }
+
+    @Test
+    public void commandsReuseOneSession() {
+        pair();
+
+        for (int i = 0; i < 3; i++) {
+            assertFalse(communication.sendKey(KeyCode.NRC_MUTE).isFault());
+        }
+
+        assertEquals(1, tv.getSessionsOpened());
+        assertEquals(3, tv.getCommands().size());
+        assertTrue(tv.getCommands().get(0).contains("<u:X_SendKey"));
+    }
+
+    @Test
+    public void outputIsDecrypted() {
+        pair();
+
+        SoapResponse response = communication.invokeAction("X_GetAppList", "", "X_AppList");
+
+        assertFalse(response.isFault());
+        assertEquals(StubTv.APP_LIST, response.getOutput());
+    }
+
+    @Test
+    public void droppedSessionIsRenewedOnce() {
+        pair();
+        assertFalse(communication.sendKey(KeyCode.NRC_MUTE).isFault());
+
+        tv.dropSession();
+
+        assertFalse(communication.sendKey(KeyCode.NRC_MUTE).isFault());
+        assertEquals(2, tv.getSessionsOpened());
+        assertEquals(2, tv.getCommands().size());
+    }
+
+    @Test
+    public void faultWithinFreshSessionIsReturned() {
+        pair();
+
+        SoapResponse response = communication.invokeAction("X_Unknown", "");
+
+        assertTrue(response.isFault());
+        assertEquals(1, tv.getSessionsOpened());
+    }
+
+    private void pair() {
+        communication.setSession(communication.authorize(communication.requestPinCode("openHAB"), StubTv.PIN_CODE));
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openhab.binding.panasonictv2.PanasonicTV2BindingConstants;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The {@link StubTv} plays the part of a Panasonic TV which only accepts encrypted commands. It serves the
+ * /nrc/control_0/ endpoint, pairs with a fixed PIN code and answers X_GetEncryptSessionId and
+ * X_EncryptedCommand, checking session id and sequence numbers like the TV does.
+ *
+ * @author Charky - Initial contribution
+ */
+class StubTv implements HttpHandler {
+
+    static final String PIN_CODE = "1234";
+    static final String APPLICATION_ID = "AQoAAAAAAAAAAAAAAAA=";
+    static final String ENCRYPTION_KEY = Base64.getEncoder()
+            .encodeToString(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16 });
+    static final String APP_LIST = "vc_app'product_id=0387878700000014'0387878700000014'Netflix'";
+
+    /** Challenge returned by X_DisplayPinCode, 16 bytes */
+    static final String CHALLENGE = Base64.getEncoder()
+            .encodeToString(new byte[] { 16, 15, 14, 13, 12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1 });
+
+    private static final String UPNP_ERROR = "<s:Fault><faultcode>s:Client</faultcode><faultstring>UPnPError"
+            + "</faultstring><detail><UPnPError xmlns=\"urn:schemas-upnp-org:control-1-0\"><errorCode>%s</errorCode>"
+            + "<errorDescription>%s</errorDescription></UPnPError></detail></s:Fault>";
+
+    private final HttpServer server;
+    private final EncryptedSession session = new EncryptedSession(APPLICATION_ID, ENCRYPTION_KEY);
+
+    /** Commands the TV executed, decrypted, in the order received */
+    private final List<String> commands = Collections.synchronizedList(new ArrayList<String>());
+
+    private String sessionId;
+    private long sequenceNumber;
+    private int sessionsOpened;
+    private String challenge = CHALLENGE;
+
+    StubTv() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/nrc/control_0/", this);
+        server.start();
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    List<String> getCommands() {
+        return commands;
+    }
+
+    synchronized int getSessionsOpened() {
+        return sessionsOpened;
+    }
+
+    /**
+     * Procedure to forget the session, as the TV does after a restart.
+     */
+    synchronized void dropSession() {
+        sessionId = null;
+    }
+
+    /**
+     * Procedure to return a different challenge from now on, e.g. a malformed one.
+     */
+    synchronized void setChallenge(String challenge) {
+        this.challenge = challenge;
+    }
+
+    @Override
+    public synchronized void handle(HttpExchange exchange) throws IOException {
+        String request = read(exchange.getRequestBody());
+        String soapAction = exchange.getRequestHeaders().getFirst("SOAPAction");
+        String action = soapAction.substring(soapAction.indexOf('#') + 1, soapAction.length() - 1);
+
+        String body;
+        try {
+            body = respond(action, request);
+        } catch (RuntimeException e) {
+            send(exchange, 500, String.format(UPNP_ERROR, "501", "Action Failed"));
+            return;
+        }
+        if (body.startsWith("<s:Fault>")) {
+            send(exchange, 500, body);
+        } else {
+            send(exchange, 200, "<u:" + action + "Response xmlns:u=\"" + PanasonicTV2BindingConstants.UPNP_XMLNS
+                    + "\">" + body + "</u:" + action + "Response>");
+        }
+    }
+
+    private String respond(String action, String request) {
+        switch (action) {
+            case "X_DisplayPinCode":
+                return "<X_ChallengeKey>" + challenge + "</X_ChallengeKey>";
+
+            case "X_RequestAuth": {
+                EncryptedSession.Keys keys = EncryptedSession.derivePairingKeys(CHALLENGE);
+                String auth = EncryptedSession.decrypt(element(request, "X_AuthInfo"), keys);
+                if (!PIN_CODE.equals(element(auth, "X_PinCode"))) {
+                    return String.format(UPNP_ERROR, "600", "Invalid PIN code");
+                }
+                return "<X_AuthResult>" + EncryptedSession.encrypt("<X_ApplicationId>" + APPLICATION_ID
+                        + "</X_ApplicationId><X_Keyword>" + ENCRYPTION_KEY + "</X_Keyword>", keys)
+                        + "</X_AuthResult>";
+            }
+
+            case "X_GetEncryptSessionId": {
+                String info = session.decrypt(element(request, "X_EncInfo"));
+                if (!APPLICATION_ID.equals(element(info, "X_ApplicationId"))) {
+                    return String.format(UPNP_ERROR, "600", "Unknown application");
+                }
+                sessionsOpened++;
+                sessionId = "S" + sessionsOpened;
+                sequenceNumber = 100 * sessionsOpened;
+                return "<X_EncResult>" + encrypt("<X_SessionId>" + sessionId + "</X_SessionId><X_SeqNum>"
+                        + sequenceNumber + "</X_SeqNum>") + "</X_EncResult>";
+            }
+
+            case "X_EncryptedCommand": {
+                String command = session.decrypt(element(request, "X_EncInfo"));
+                long received = Long.parseLong(element(command, "X_SequenceNumber"));
+                if (sessionId == null || !sessionId.equals(element(command, "X_SessionId"))
+                        || received <= sequenceNumber) {
+                    return String.format(UPNP_ERROR, "600", "Invalid session");
+                }
+                sequenceNumber = received;
+                String original = element(command, "X_OriginalCommand");
+                if (!original.startsWith("<u:X_SendKey ") && !original.startsWith("<u:X_GetAppList ")) {
+                    return String.format(UPNP_ERROR, "401", "Invalid Action");
+                }
+                commands.add(original);
+                String result = command.contains("X_GetAppList") ? "<X_AppList>" + APP_LIST + "</X_AppList>" : "";
+                return "<X_EncResult>" + encrypt(result) + "</X_EncResult>";
+            }
+
+            default:
+                return String.format(UPNP_ERROR, "401", "Invalid Action");
+        }
+    }
+
+    private String encrypt(String payload) {
+        return EncryptedSession.encrypt(payload, session.getKeys());
+    }
+
+    static String element(String xml, String name) {
+        Matcher matcher = Pattern.compile("<" + name + ">(.*?)</" + name + ">", Pattern.DOTALL).matcher(xml);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = ("<?xml version=\"1.0\"?><s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+                + "<s:Body>" + body + "</s:Body></s:Envelope>").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=\"utf-8\"");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
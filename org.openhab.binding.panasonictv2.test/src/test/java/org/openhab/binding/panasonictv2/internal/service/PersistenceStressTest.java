@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal.service;
+
+import static org.junit.Assert.*;
+
+import org.eclipse.smarthome.core.thing.ThingUID;
+import org.junit.Test;
+import org.openhab.binding.panasonictv2.PanasonicTV2BindingConstants;
+import org.openhab.binding.panasonictv2.StressRunner;
+import org.openhab.binding.panasonictv2.handler.FakeTvEnvironment;
+import org.openhab.binding.panasonictv2.internal.ThingDataStore;
+
+/**
+ * Stress tests of the learned TV data: whatever order concurrent changes are made in, the persisted data must
+ * match the data in memory once they are done.
+ *
+ * @author Charky - Initial contribution
+ */
+public class PersistenceStressTest {
+
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 5000;
+    private static final int ACTIONS = 4;
+    private static final String SERVICE = "RenderingControl";
+
+    private final ThingDataStore store = new ThingDataStore(new FakeTvEnvironment.InMemoryStorage(),
+            new ThingUID(PanasonicTV2BindingConstants.THING_TYPE_PANASONICTV, "stress"));
+
+    @Test
+    public void persistedCapabilitiesMatchMemory() throws Exception {
+        final CapabilityCache cache = new CapabilityCache(store);
+
+        StressRunner.run(THREADS, ITERATIONS, new StressRunner.Task() {
+            @Override
+            public void run(int thread, int iteration) {
+                String action = "Action" + (iteration % ACTIONS);
+                switch ((thread + iteration) % 3) {
+                    case 0:
+                        cache.actionSucceeded(SERVICE, action);
+                        break;
+                    case 1:
+                        cache.actionFailed(SERVICE, action);
+                        break;
+                    default:
+                        cache.markUnsupported(SERVICE, action);
+                }
+            }
+        });
+
+        CapabilityCache restored = new CapabilityCache(store);
+        for (int i = 0; i < ACTIONS; i++) {
+            assertEquals("Action" + i, cache.isSupported(SERVICE, "Action" + i),
+                    restored.isSupported(SERVICE, "Action" + i));
+        }
+    }
+
+    @Test
+    public void persistedLineupMatchesMemory() throws Exception {
+        final ChannelLineup lineup = new ChannelLineup(store);
+
+        StressRunner.run(THREADS, ITERATIONS, new StressRunner.Task() {
+            @Override
+            public void run(int thread, int iteration) {
+                lineup.learn(String.valueOf(iteration % ACTIONS), "Channel " + thread + "/" + iteration);
+            }
+        });
+
+        ChannelLineup restored = new ChannelLineup(store);
+        for (int i = 0; i < ACTIONS; i++) {
+            assertEquals(lineup.getName(i), restored.getName(i));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import org.openhab.binding.panasonictv2.internal.protocol.TrafficRecord;
+
+/**
+ * The {@link FlightRecorderEvents} define the JFR event types of the binding. This is the only class referring to
+ * the JFR API. It is compiled separately by the jfr build profile and loaded by {@link BindingEvents} only if it
+ * is part of the bundle and the runtime provides JFR.
+ *
+ * @author Charky - Initial contribution
+ */
+final class FlightRecorderEvents implements BindingEvents.Recorder {
+
+    private static final String PREFIX = "org.openhab.binding.panasonictv2.";
+
+    @Category({ "openHAB", "Panasonic TV" })
+    @StackTrace(false)
+    abstract static class BindingEvent extends jdk.jfr.Event implements BindingEvents.Event {
+
+        @Label("Thing UID")
+        String thingUID;
+
+        @Label("Name")
+        @Description("Action, key or device type the event is about")
+        String name;
+
+        @Label("Outcome")
+        String outcome;
+
+        @Label("Payload Size")
+        @Description("Bytes sent or parsed")
+        @DataAmount
+        long payloadSize;
+
+        @Override
+        public void complete(TrafficRecord.Outcome outcome, long payloadSize) {
+            end();
+            if (shouldCommit()) {
+                this.outcome = outcome.name();
+                this.payloadSize = payloadSize;
+                commit();
+            }
+        }
+    }
+
+    @Name(PREFIX + "KeySend")
+    @Label("Key Send")
+    static class KeySendEvent extends BindingEvent {
+    }
+
+    @Name(PREFIX + "Poll")
+    @Label("Poll Cycle")
+    static class PollEvent extends BindingEvent {
+    }
+
+    @Name(PREFIX + "UpnpAction")
+    @Label("UPnP Action")
+    static class UpnpActionEvent extends BindingEvent {
+    }
+
+    @Name(PREFIX + "SoapCall")
+    @Label("SOAP Call")
+    static class SoapCallEvent extends BindingEvent {
+    }
+
+    @Name(PREFIX + "XmlParse")
+    @Label("XML Parse")
+    static class XmlParseEvent extends BindingEvent {
+    }
+
+    @Name(PREFIX + "Discovery")
+    @Label("Discovery")
+    static class DiscoveryEvent extends BindingEvent {
+    }
+
+    @Name(PREFIX + "ServiceCreation")
+    @Label("Service Creation")
+    static class ServiceCreationEvent extends BindingEvent {
+    }
+
+    @Override
+    public BindingEvents.Event begin(BindingEvents.Kind kind, String thingUID, String name) {
+        BindingEvent event = create(kind);
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.thingUID = thingUID;
+        event.name = name;
+        event.begin();
+        return event;
+    }
+
+    private static BindingEvent create(BindingEvents.Kind kind) {
+        switch (kind) {
+            case KEY_SEND:
+                return new KeySendEvent();
+            case POLL:
+                return new PollEvent();
+            case UPNP_ACTION:
+                return new UpnpActionEvent();
+            case SOAP_CALL:
+                return new SoapCallEvent();
+            case XML_PARSE:
+                return new XmlParseEvent();
+            case DISCOVERY:
+                return new DiscoveryEvent();
+            default:
+                return new ServiceCreationEvent();
+        }
+    }
+}
@@ -22,6 +22,7 @@ public class PanasonicTV2BindingConstants {
 
     // List of all Thing Type UIDs
     public static final ThingTypeUID THING_TYPE_PANASONICTV = new ThingTypeUID(BINDING_ID, "panasonictv");
+    public static final ThingTypeUID THING_TYPE_GROUP = new ThingTypeUID(BINDING_ID, "group");
 
     // List of all Channel ids
     public static final String CHANNEL_POWER = "power";
@@ -31,13 +32,20 @@ public class PanasonicTV2BindingConstants {
     public static final String CHANNEL_CHANNEL = "channel";
     public static final String CHANNEL_PROGRAM_TITLE = "programTitle";
     public static final String CHANNEL_CHANNEL_NAME = "channelName";
+    public static final String CHANNEL_TEXT_INPUT = "textInput";
+    public static final String CHANNEL_APP = "app";
+    public static final String CHANNEL_INPUT = "input";
+    public static final String CHANNEL_PRESET_SAVE = "presetSave";
+    public static final String CHANNEL_PRESET_RECALL = "presetRecall";
+    public static final String CHANNEL_GROUP_RESULT = "groupResult";
+    public static final String CHANNEL_CAST = "cast";
 
     // Additional Finals
     public static final String UPNP_MANUFACTURER = "Panasonic";
     public static final String UPNP_XMLNS = "urn:panasonic-com:service:p00NetworkControl:1";
     public static final String UPNP_TYPE = "p00RemoteController";
     // SOAP actions
-    public static final String SOAP_URL = "http://%s:55000/nrc/control_0/";
-    public static final String SOAP_SENDKEY = "\"urn:panasonic-com:service:p00NetworkControl:1#X_SendKey\"";
+    public static final String SOAP_URL = "http://%s:%d/nrc/control_0/";
+    public static final String SOAP_ACTION = "\"%s#%s\"";
 
 }
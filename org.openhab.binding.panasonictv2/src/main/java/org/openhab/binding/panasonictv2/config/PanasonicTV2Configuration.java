@@ -8,6 +8,9 @@
  */
 package org.openhab.binding.panasonictv2.config;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Configuration class for {@link SamsungTvBinding} device.
  *
@@ -17,9 +20,68 @@ public class PanasonicTV2Configuration {
     public static final String HOST_NAME = "hostName";
     public static final String PORT = "port";
     public static final String REFRESH_INTERVAL = "refreshInterval";
+    public static final String STATE_UPDATE_WINDOW = "stateUpdateWindow";
+    public static final String CONNECT_TIMEOUT = "connectTimeout";
+    public static final String READ_TIMEOUT = "readTimeout";
+    public static final String BREAKER_THRESHOLD = "breakerThreshold";
+    public static final String BREAKER_RESET_TIME = "breakerResetTime";
+    public static final String TRANSPORT = "transport";
+    public static final String RECORD_TRAFFIC = "recordTraffic";
+    public static final String INPUT_CYCLE = "inputCycle";
+    public static final String ENCRYPTED = "encrypted";
+    public static final String PIN_CODE = "pinCode";
+    public static final String APPLICATION_ID = "applicationId";
+    public static final String ENCRYPTION_KEY = "encryptionKey";
+
+    public static final String TRANSPORT_UPNP = "upnp";
+    public static final String TRANSPORT_DIRECT = "direct";
+
+    public static final String DEFAULT_INPUT_CYCLE = "TV,AV,HDMI1,HDMI2,HDMI3,HDMI4";
 
     public String hostName;
     public int port;
     public int refreshInterval;
+    public int stateUpdateWindow;
+    public int connectTimeout;
+    public int readTimeout;
+    public int breakerThreshold;
+    public int breakerResetTime;
+    public String transport;
+    public boolean recordTraffic;
+    public String inputCycle;
+    public boolean encrypted;
+    public String pinCode;
+    public String applicationId;
+    public String encryptionKey;
+
+    /**
+     * @return true if key codes are sent by direct SOAP calls instead of UPnP action invocation, always the case
+     *         for TVs which only accept encrypted commands
+     */
+    public boolean isDirectTransport() {
+        return encrypted || TRANSPORT_DIRECT.equals(transport);
+    }
+
+    /**
+     * @return true if the TV assigned an application id and encryption key during pairing
+     */
+    public boolean isPaired() {
+        return applicationId != null && !applicationId.isEmpty() && encryptionKey != null
+                && !encryptionKey.isEmpty();
+    }
+
+    /**
+     * @return Upper case inputs in the order the input key cycles through them
+     */
+    public List<String> getInputCycle() {
+        String cycle = inputCycle == null || inputCycle.trim().isEmpty() ? DEFAULT_INPUT_CYCLE : inputCycle;
+        List<String> inputs = new ArrayList<>();
+        for (String input : cycle.split(",")) {
+            if (!input.trim().isEmpty()) {
+                inputs.add(input.trim().toUpperCase());
+            }
+        }
+        return inputs;
+    }
 
 }
@@ -0,0 +1,23 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.config;
+
+/**
+ * Configuration class for the Panasonic TV group bridge.
+ *
+ * @author Charky - Initial contribution
+ */
+public class PanasonicTV2GroupConfiguration {
+    public static final String MAX_CONCURRENCY = "maxConcurrency";
+    public static final String COMMAND_TIMEOUT = "commandTimeout";
+
+    public int maxConcurrency;
+    public int commandTimeout;
+
+}
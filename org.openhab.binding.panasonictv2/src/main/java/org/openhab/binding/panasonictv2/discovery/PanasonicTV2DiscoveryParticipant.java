@@ -10,6 +10,7 @@ package org.openhab.binding.panasonictv2.discovery;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -32,8 +33,31 @@ import org.slf4j.LoggerFactory;
  */
 public class PanasonicTV2DiscoveryParticipant implements UpnpDiscoveryParticipant {
 
+    private static final String UPNP_DEVICE_TYPE = "MediaRenderer";
+
+    /** Number of devices whose decision is remembered */
+    private static final int MAX_DECISIONS = 512;
+
+    /** Marks a device which is no Panasonic TV, the decision cache can't hold null */
+    private static final ThingUID REJECTED = new ThingUID(PanasonicTV2BindingConstants.THING_TYPE_PANASONICTV,
+            "rejected");
+
     private Logger logger = LoggerFactory.getLogger(PanasonicTV2DiscoveryParticipant.class);
 
+    /*
+     * Manufacturer and model of a device never change, so the decision is made once per UDN. Devices keep
+     * announcing themselves every few seconds, the least recently announced are evicted first.
+     */
+    private final Map<String, ThingUID> decisions = Collections
+            .synchronizedMap(new LinkedHashMap<String, ThingUID>(64, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ThingUID> eldest) {
+                    return size() > MAX_DECISIONS;
+                }
+            });
+
     @Override
     public Set<ThingTypeUID> getSupportedThingTypeUIDs() {
         return Collections.singleton(PanasonicTV2BindingConstants.THING_TYPE_PANASONICTV);
@@ -70,26 +94,49 @@ public class PanasonicTV2DiscoveryParticipant implements UpnpDiscoveryParticipan
             return null;
         }
 
+        // Cheapest check first, most devices announcing themselves on the network are no media renderers
+        if (!UPNP_DEVICE_TYPE.equals(device.getType().getType())) {
+            return null;
+        }
+
+        String identifier = device.getIdentity().getUdn().getIdentifierString();
+        ThingUID cached = decisions.get(identifier);
+        if (cached != null) {
+            return cached != REJECTED ? cached : null;
+        }
+
         String manufacturer = device.getDetails().getManufacturerDetails().getManufacturer();
         String modelName = device.getDetails().getModelDetails().getModelName();
-        String friedlyName = device.getDetails().getFriendlyName();
-
         if (manufacturer == null || modelName == null) {
+            // description incomplete, decide on the next announcement
+            return null;
+        }
+
+        ThingUID uid = decide(device, identifier, manufacturer, modelName);
+        decisions.put(identifier, uid != null ? uid : REJECTED);
+        return uid;
+    }
+
+    private ThingUID decide(RemoteDevice device, String identifier, String manufacturer, String modelName) {
+        if (!containsIgnoreCase(manufacturer, PanasonicTV2BindingConstants.UPNP_MANUFACTURER)) {
             return null;
         }
 
         // UDN shouldn't contain '-' characters.
-        String udn = device.getIdentity().getUdn().getIdentifierString().replace("-", "_");
+        String udn = identifier.replace("-", "_");
 
-        if (manufacturer.toUpperCase().contains(PanasonicTV2BindingConstants.UPNP_MANUFACTURER.toUpperCase())
-                && device.getType().getType().equals("MediaRenderer")) {
-            // && device.getType().getType().equals(PanasonicTV2BindingConstants.UPNP_TYPE)) {
+        logger.debug("Discovered a Panasonic TV '{}' model '{}' thing with UDN '{}'",
+                device.getDetails().getFriendlyName(), modelName, udn);
 
-            logger.debug("Discovered a Panasonic TV '{}' model '{}' thing with UDN '{}'", friedlyName, modelName, udn);
+        return new ThingUID(PanasonicTV2BindingConstants.THING_TYPE_PANASONICTV, udn);
+    }
 
-            return new ThingUID(PanasonicTV2BindingConstants.THING_TYPE_PANASONICTV, udn);
-        } else {
-            return null;
+    private static boolean containsIgnoreCase(String text, String part) {
+        for (int i = 0; i <= text.length() - part.length(); i++) {
+            if (text.regionMatches(true, i, part, 0, part.length())) {
+                return true;
+            }
         }
+        return false;
     }
 }
@@ -0,0 +1,276 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.handler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.smarthome.core.common.NamedThreadFactory;
+import org.eclipse.smarthome.core.library.types.StringType;
+import org.eclipse.smarthome.core.thing.Bridge;
+import org.eclipse.smarthome.core.thing.ChannelUID;
+import org.eclipse.smarthome.core.thing.Thing;
+import org.eclipse.smarthome.core.thing.ThingStatus;
+import org.eclipse.smarthome.core.thing.ThingStatusDetail;
+import org.eclipse.smarthome.core.thing.ThingUID;
+import org.eclipse.smarthome.core.thing.binding.BaseBridgeHandler;
+import org.eclipse.smarthome.core.types.Command;
+import org.eclipse.smarthome.core.types.RefreshType;
+import org.openhab.binding.panasonictv2.PanasonicTV2BindingConstants;
+import org.openhab.binding.panasonictv2.config.PanasonicTV2GroupConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link PanasonicTV2GroupHandler} fans out commands sent to a group of Panasonic TVs. Every TV thing
+ * which uses the group as bridge is a member. Commands are executed in parallel, limited by the configured
+ * concurrency, and the aggregated outcome is published on the group result channel.
+ *
+ * @author Charky - Initial contribution
+ */
+public class PanasonicTV2GroupHandler extends BaseBridgeHandler {
+
+    private final Logger logger = LoggerFactory.getLogger(PanasonicTV2GroupHandler.class);
+
+    /** Outcome of a command for a single member TV */
+    public enum Outcome {
+        SUCCEEDED,
+        FAILED,
+        TIMED_OUT
+    }
+
+    /** Interval in which a queued member call is checked for having been cancelled */
+    private static final long START_CHECK_INTERVAL = 100;
+
+    private PanasonicTV2GroupConfiguration configuration;
+
+    /** Executor bounding the number of member TVs addressed at the same time, guarded by this */
+    private ExecutorService executor;
+
+    /** Single thread waiting for the outcome of group commands, one after another, guarded by this */
+    private ExecutorService coordinator;
+
+    /**
+     * Command for a single member TV. The timeout of a member starts when its call starts, not while it waits
+     * for a free slot of the executor.
+     */
+    private static class MemberCall implements Callable<Boolean> {
+        private final PanasonicTV2Handler handler;
+        private final String channel;
+        private final Command command;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private volatile long startedAt;
+
+        MemberCall(PanasonicTV2Handler handler, String channel, Command command) {
+            this.handler = handler;
+            this.channel = channel;
+            this.command = command;
+        }
+
+        @Override
+        public Boolean call() throws Exception {
+            startedAt = System.nanoTime();
+            started.countDown();
+            return handler.sendCommand(channel, command);
+        }
+
+        /**
+         * @return false if the call was cancelled before it started
+         */
+        boolean awaitStart(Future<?> future) throws InterruptedException {
+            while (!started.await(START_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+                if (future.isDone()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public PanasonicTV2GroupHandler(Bridge bridge) {
+        super(bridge);
+    }
+
+    @Override
+    public void initialize() {
+        configuration = getConfigAs(PanasonicTV2GroupConfiguration.class);
+
+        logger.debug("Initializing Panasonic TV group handler for uid '{}'", getThing().getUID());
+
+        if (configuration.maxConcurrency <= 0 || configuration.commandTimeout <= 0) {
+            updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.CONFIGURATION_ERROR,
+                    "Concurrency and command timeout must be positive!");
+            return;
+        }
+
+        String poolName = "panasonictv2-group-" + getThing().getUID().getId();
+        synchronized (this) {
+            executor = Executors.newFixedThreadPool(configuration.maxConcurrency,
+                    new NamedThreadFactory(poolName, true));
+            coordinator = Executors.newSingleThreadExecutor(new NamedThreadFactory(poolName + "-coordinator", true));
+        }
+        updateStatus(ThingStatus.ONLINE);
+    }
+
+    /*
+     * Calls still queued are cancelled rather than dropped, so a fan-out waiting for them finishes instead of
+     * waiting for a start which never comes.
+     */
+    @Override
+    public synchronized void dispose() {
+        if (executor != null) {
+            for (Runnable queued : executor.shutdownNow()) {
+                if (queued instanceof Future) {
+                    ((Future<?>) queued).cancel(false);
+                }
+            }
+            executor = null;
+        }
+        if (coordinator != null) {
+            coordinator.shutdownNow();
+            coordinator = null;
+        }
+    }
+
+    @Override
+    public void handleCommand(ChannelUID channelUID, Command command) {
+        logger.debug("Received group channel: {}, command: {}", channelUID, command);
+
+        if (command instanceof RefreshType
+                || PanasonicTV2BindingConstants.CHANNEL_GROUP_RESULT.equals(channelUID.getId())) {
+            return;
+        }
+
+        if (getThing().getStatus() != ThingStatus.ONLINE) {
+            logger.debug("Panasonic TV group '{}' is OFFLINE", getThing().getUID());
+            return;
+        }
+
+        final String channel = channelUID.getId();
+        synchronized (this) {
+            if (coordinator == null) {
+                return;
+            }
+            try {
+                coordinator.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        Map<ThingUID, Outcome> result = fanOut(channel, command);
+                        updateState(new ChannelUID(getThing().getUID(),
+                                PanasonicTV2BindingConstants.CHANNEL_GROUP_RESULT),
+                                new StringType(formatResult(result)));
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                logger.debug("Panasonic TV group '{}' is being disposed, command dropped", getThing().getUID());
+            }
+        }
+    }
+
+    /**
+     * Sends a command to all member TVs and waits for the outcome of each of them.
+     *
+     * @param channel Id of the channel the command is meant for
+     * @param command Command to send
+     * @return Outcome per member TV, in member order
+     */
+    public Map<ThingUID, Outcome> fanOut(String channel, Command command) {
+        Map<ThingUID, MemberCall> calls = new LinkedHashMap<>();
+        Map<ThingUID, Future<Boolean>> futures = new LinkedHashMap<>();
+        Map<ThingUID, Outcome> result = new LinkedHashMap<>();
+
+        ExecutorService members;
+        synchronized (this) {
+            members = executor;
+        }
+
+        for (Thing member : getThing().getThings()) {
+            if (members != null && member.getHandler() instanceof PanasonicTV2Handler) {
+                MemberCall call = new MemberCall((PanasonicTV2Handler) member.getHandler(), channel, command);
+                try {
+                    futures.put(member.getUID(), members.submit(call));
+                    calls.put(member.getUID(), call);
+                } catch (RejectedExecutionException e) {
+                    // Group disposed meanwhile
+                    result.put(member.getUID(), Outcome.FAILED);
+                }
+            } else {
+                result.put(member.getUID(), Outcome.FAILED);
+            }
+        }
+
+        // Every member has its own deadline, counted from the start of its call
+        long timeout = TimeUnit.MILLISECONDS.toNanos(configuration.commandTimeout);
+        for (Map.Entry<ThingUID, Future<Boolean>> entry : futures.entrySet()) {
+            Future<Boolean> future = entry.getValue();
+            MemberCall call = calls.get(entry.getKey());
+            try {
+                if (!call.awaitStart(future)) {
+                    result.put(entry.getKey(), Outcome.FAILED);
+                    continue;
+                }
+                long remaining = call.startedAt + timeout - System.nanoTime();
+                boolean delivered = future.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+                result.put(entry.getKey(), delivered ? Outcome.SUCCEEDED : Outcome.FAILED);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                result.put(entry.getKey(), Outcome.TIMED_OUT);
+            } catch (ExecutionException e) {
+                logger.debug("Command '{}' failed for TV '{}': {}", command, entry.getKey(), e.getCause());
+                result.put(entry.getKey(), Outcome.FAILED);
+            } catch (CancellationException e) {
+                result.put(entry.getKey(), Outcome.FAILED);
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                result.put(entry.getKey(), Outcome.FAILED);
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        logger.debug("Group command '{}' on channel '{}' finished: {}", command, channel, result);
+        return result;
+    }
+
+    private String formatResult(Map<ThingUID, Outcome> result) {
+        List<String> failed = new ArrayList<>();
+        List<String> timedOut = new ArrayList<>();
+        int succeeded = 0;
+
+        for (Map.Entry<ThingUID, Outcome> entry : result.entrySet()) {
+            switch (entry.getValue()) {
+                case SUCCEEDED:
+                    succeeded++;
+                    break;
+                case FAILED:
+                    failed.add(entry.getKey().getId());
+                    break;
+                case TIMED_OUT:
+                    timedOut.add(entry.getKey().getId());
+                    break;
+            }
+        }
+
+        return String.format("succeeded %d/%d, failed %s, timed out %s", succeeded, result.size(), failed,
+                timedOut);
+    }
+
+}
@@ -8,18 +8,31 @@
  */
 package org.openhab.binding.panasonictv2.handler;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
+import org.eclipse.smarthome.config.core.ConfigConstants;
+import org.eclipse.smarthome.config.core.Configuration;
 import org.eclipse.smarthome.config.discovery.DiscoveryListener;
 import org.eclipse.smarthome.config.discovery.DiscoveryResult;
 import org.eclipse.smarthome.config.discovery.DiscoveryService;
 import org.eclipse.smarthome.config.discovery.DiscoveryServiceRegistry;
 import org.eclipse.smarthome.core.library.types.OnOffType;
+import org.eclipse.smarthome.core.library.types.StringType;
+import org.eclipse.smarthome.core.storage.Storage;
+import org.eclipse.smarthome.core.thing.Channel;
 import org.eclipse.smarthome.core.thing.ChannelUID;
 import org.eclipse.smarthome.core.thing.Thing;
 import org.eclipse.smarthome.core.thing.ThingStatus;
@@ -28,6 +41,7 @@ import org.eclipse.smarthome.core.thing.ThingTypeUID;
 import org.eclipse.smarthome.core.thing.ThingUID;
 import org.eclipse.smarthome.core.thing.binding.BaseThingHandler;
 import org.eclipse.smarthome.core.types.Command;
+import org.eclipse.smarthome.core.types.RefreshType;
 import org.eclipse.smarthome.core.types.State;
 import org.eclipse.smarthome.io.transport.upnp.UpnpIOService;
 import org.jupnp.UpnpService;
@@ -37,7 +51,27 @@ import org.jupnp.registry.Registry;
 import org.jupnp.registry.RegistryListener;
 import org.openhab.binding.panasonictv2.PanasonicTV2BindingConstants;
 import org.openhab.binding.panasonictv2.config.PanasonicTV2Configuration;
+import org.openhab.binding.panasonictv2.internal.CommandFilter;
+import org.openhab.binding.panasonictv2.internal.EventJournal;
+import org.openhab.binding.panasonictv2.internal.MediaServer;
+import org.openhab.binding.panasonictv2.internal.PowerStateMachine;
+import org.openhab.binding.panasonictv2.internal.PresetStore;
+import org.openhab.binding.panasonictv2.internal.StateCoalescer;
+import org.openhab.binding.panasonictv2.internal.ThingDataStore;
+import org.openhab.binding.panasonictv2.internal.jfr.BindingEvents;
+import org.openhab.binding.panasonictv2.internal.protocol.CircuitBreaker;
+import org.openhab.binding.panasonictv2.internal.protocol.CommunicationException;
+import org.openhab.binding.panasonictv2.internal.protocol.EncryptedSession;
+import org.openhab.binding.panasonictv2.internal.protocol.PanasonicTV2Communication;
+import org.openhab.binding.panasonictv2.internal.protocol.TrafficRecord;
+import org.openhab.binding.panasonictv2.internal.protocol.TrafficRecorder;
+import org.openhab.binding.panasonictv2.internal.service.AppCatalog;
+import org.openhab.binding.panasonictv2.internal.service.CapabilityCache;
+import org.openhab.binding.panasonictv2.internal.service.ChannelLineup;
+import org.openhab.binding.panasonictv2.internal.service.RemoteControllerService;
+import org.openhab.binding.panasonictv2.internal.service.ServiceContext;
 import org.openhab.binding.panasonictv2.internal.service.ServiceFactory;
+import org.openhab.binding.panasonictv2.internal.service.UpnpActionInvoker;
 import org.openhab.binding.panasonictv2.internal.service.api.PanasonicTV2Service;
 import org.openhab.binding.panasonictv2.internal.service.api.ValueReceiver;
 import org.slf4j.Logger;
@@ -50,29 +84,86 @@ import org.slf4j.LoggerFactory;
  * @author Charky - Initial contribution
  */
 public class PanasonicTV2Handler extends BaseThingHandler
-        implements DiscoveryListener, RegistryListener, ValueReceiver {
+        implements DiscoveryListener, RegistryListener, ValueReceiver, CircuitBreaker.StateListener {
 
     // Logging
     private final Logger logger = LoggerFactory.getLogger(PanasonicTV2Handler.class);
 
+    /** Name under which the binding asks to be paired with a TV */
+    private static final String PAIRING_DEVICE_NAME = "openHAB";
+
+    /** Store key of the challenge of a pairing waiting for its PIN code */
+    private static final String PAIRING_CHALLENGE = "pairingChallenge";
+
+    /** Seconds between writes of the recorded traffic to the log file */
+    private static final int TRAFFIC_FLUSH_INTERVAL = 10;
+
     /** Global configuration for Panasonic TV Thing */
     private PanasonicTV2Configuration configuration;
     private ThingUID upnpThingUID = null;
 
+    /** Set while the handler is disposed, a scan still running must not create services or listeners then */
+    private volatile boolean disposed = false;
+
     /** Polling job for searching UPnP devices on startup */
-    private ScheduledFuture<?> upnpPollingJob;
+    private volatile ScheduledFuture<?> upnpPollingJob;
+
+    /** Pairing with a TV which only accepts encrypted commands */
+    private volatile ScheduledFuture<?> pairingJob;
 
     private UpnpIOService upnpIOService;
     private DiscoveryServiceRegistry discoveryServiceRegistry;
     private UpnpService upnpService;
 
-    /** Panasonic TV services */
-    private List<PanasonicTV2Service> services;
+    /** Serves local media cast to the TV, shared by all TVs */
+    private final MediaServer mediaServer;
+
+    /** Panasonic TV services, changed by discovery callbacks while commands iterate over them */
+    private final List<PanasonicTV2Service> services = new CopyOnWriteArrayList<>();
+
+    /** Guards all calls to the TV, shared by its services */
+    private CircuitBreaker breaker;
+    /** Probes an open circuit breaker, as neither polling nor commands reach a TV which is not ONLINE */
+    private ScheduledFuture<?> breakerProbeJob;
+    private UpnpActionInvoker invoker;
+    private PanasonicTV2Communication communication;
+    private ServiceContext serviceContext;
+
+    /** Recorder for the traffic to the TV, null if traffic isn't recorded */
+    private TrafficRecorder recorder;
+    private ScheduledFuture<?> recorderFlushJob;
+
+    /** Data learned from the TV, kept across restarts */
+    private final ThingDataStore store;
+
+    /** Power of the TV, holds commands while it boots or shuts down */
+    private final PowerStateMachine power = new PowerStateMachine();
+
+    /** Recent events of the TV for diagnostics, kept across re-initialization */
+    private final EventJournal journal;
+
+    /** Named snapshots of the TV state */
+    private final PresetStore presets;
+
+    /** Drops commands which match the known state of the TV */
+    private final CommandFilter commandFilter = new CommandFilter();
+
+    /** Collects state updates so only the last state of each channel reaches the event bus */
+    private final StateCoalescer stateCoalescer;
+
+    /** Last state published per channel id, the source of presets */
+    private final Map<String, State> publishedStates = new ConcurrentHashMap<>();
 
-    private boolean powerOn = false;
+    /** Channel UIDs of this thing by channel id, built once and reused for every state update */
+    private final Map<String, ChannelUID> channelUIDs = new ConcurrentHashMap<>();
+    private final ChannelUID powerChannelUID;
+
+    /** Ids of the channels linked to an item, shared with the services to skip polling unlinked data */
+    private final Set<String> linkedChannels = ConcurrentHashMap.newKeySet();
 
     public PanasonicTV2Handler(Thing thing, UpnpIOService upnpIOService,
-            DiscoveryServiceRegistry discoveryServiceRegistry, UpnpService upnpService) {
+            DiscoveryServiceRegistry discoveryServiceRegistry, UpnpService upnpService, Storage<String> storage,
+            MediaServer mediaServer) {
         super(thing);
 
         logger.debug("Create a Panasonic TV Handler for thing '{}'", getThing().getUID());
@@ -93,36 +184,264 @@ public class PanasonicTV2Handler extends BaseThingHandler
             logger.debug("upnpService not set.");
         }
 
-        services = new ArrayList<>();
+        for (Channel channel : thing.getChannels()) {
+            channelUIDs.put(channel.getUID().getId(), channel.getUID());
+        }
+        powerChannelUID = getChannelUID(PanasonicTV2BindingConstants.CHANNEL_POWER);
+
+        this.mediaServer = mediaServer;
+
+        journal = new EventJournal(thing.getUID().toString());
+        stateCoalescer = new StateCoalescer(scheduler, new StateCoalescer.Publisher() {
+            @Override
+            public void publish(ChannelUID channelUID, State state) {
+                publishedStates.put(channelUID.getId(), state);
+                updateState(channelUID, state);
+            }
+        });
+        store = new ThingDataStore(storage, thing.getUID());
+        presets = new PresetStore(store);
+    }
+
+    /**
+     * @return Recent events of the TV
+     */
+    public EventJournal getJournal() {
+        return journal;
+    }
+
+    private ChannelUID getChannelUID(String channelId) {
+        ChannelUID channelUID = channelUIDs.get(channelId);
+        if (channelUID == null) {
+            channelUID = new ChannelUID(getThing().getUID(), channelId);
+            channelUIDs.put(channelId, channelUID);
+        }
+        return channelUID;
     }
 
     @Override
     public void handleCommand(ChannelUID channelUID, Command command) {
-        logger.debug("Received channel: {}, command: {}", channelUID, command);
+        if (command instanceof RefreshType) {
+            refreshChannel(channelUID.getId());
+            return;
+        }
+
+        journal.record(EventJournal.Type.COMMAND, channelUID.getId(), command);
 
-        logger.debug("Received channel: {}, command: {}", channelUID, command);
+        if (power.mustHold(channelUID.getId(), command, isReachable())) {
+            holdCommand(channelUID.getId(), command);
+        } else if (isReachable()) {
+            try {
+                if (!dispatchCommand(channelUID.getId(), command)) {
+                    logger.warn("Channel '{}' not supported", channelUID);
+                }
+            } catch (CommunicationException e) {
+                journal.record(EventJournal.Type.ERROR, channelUID.getId(), e.getMessage());
+            }
+        } else {
+            journal.record(EventJournal.Type.ERROR, channelUID.getId(), "TV is OFFLINE, command dropped");
+        }
+    }
 
-        if (getThing().getStatus() == ThingStatus.ONLINE) {
+    /**
+     * Sends a command to the TV on behalf of a group and reports whether it was delivered. Exceptions thrown by the
+     * services are passed on to the caller.
+     *
+     * @param channel Id of the channel the command is meant for
+     * @param command Command to send
+     * @return true if a service accepted the command or it is held until the TV responds, false if the TV is OFFLINE
+     *         or the channel is not supported
+     */
+    public boolean sendCommand(String channel, Command command) {
+        if (power.mustHold(channel, command, isReachable())) {
+            holdCommand(channel, command);
+            return true;
+        }
+        if (!isReachable()) {
+            logger.debug("Panasonic TV '{}' is OFFLINE", getThing().getUID());
+            return false;
+        }
+        return dispatchCommand(channel, command);
+    }
 
-            // Delegate command to correct service
+    /*
+     * With the direct transport key codes don't depend on UPnP registration, so commands are
+     * passed on while the thing still waits for the UPnP devices.
+     */
+    private boolean isReachable() {
+        return getThing().getStatus() == ThingStatus.ONLINE || communication != null;
+    }
 
-            String channel = channelUID.getId();
+    private boolean dispatchCommand(String channel, Command command) {
+        if (command instanceof RefreshType) {
+            refreshChannel(channel);
+            return true;
+        }
 
-            for (PanasonicTV2Service service : services) {
-                if (service != null) {
-                    List<String> supportedCommands = service.getSupportedChannelNames();
-                    for (String s : supportedCommands) {
-                        if (channel.equals(s)) {
-                            service.handleCommand(channel, command);
-                            return;
-                        }
+        switch (channel) {
+            case PanasonicTV2BindingConstants.CHANNEL_PRESET_SAVE:
+                if (command instanceof StringType) {
+                    savePreset(command.toString());
+                }
+                return true;
+            case PanasonicTV2BindingConstants.CHANNEL_PRESET_RECALL:
+                if (command instanceof StringType) {
+                    recallPreset(command.toString());
+                }
+                return true;
+        }
+
+        if (PanasonicTV2BindingConstants.CHANNEL_POWER.equals(channel)
+                && power.isNoOp(command, getThing().getStatus() == ThingStatus.ONLINE)) {
+            journal.record(EventJournal.Type.COMMAND, channel, "TV is " + power.getState() + ", not sent");
+            return true;
+        }
+        if (commandFilter.isNoOp(channel, command)) {
+            journal.record(EventJournal.Type.COMMAND, channel, "matches the known state, not sent");
+            return true;
+        }
+
+        // Delegate command to all services supporting the channel
+        boolean handled = false;
+        for (PanasonicTV2Service service : services) {
+            if (service != null && service.getSupportedChannelNames().contains(channel)) {
+                service.handleCommand(channel, command);
+                handled = true;
+            }
+        }
+
+        if (handled && PanasonicTV2BindingConstants.CHANNEL_POWER.equals(channel) && command instanceof OnOffType) {
+            // NRC_POWER toggles, the power state machine keeps a repeated command from toggling back
+            commandFilter.update(channel, (OnOffType) command);
+            power.powerCommandSent(command);
+        }
+        return handled;
+    }
+
+    private void holdCommand(String channel, Command command) {
+        PowerStateMachine.HeldCommand dropped = power.hold(channel, command);
+        journal.record(EventJournal.Type.COMMAND, channel, "held while TV is " + power.getState());
+        if (dropped != null) {
+            journal.record(EventJournal.Type.ERROR, dropped.getChannel(),
+                    "held command dropped, buffer full: " + dropped.getCommand());
+        }
+    }
+
+    /*
+     * Held commands are sent in the order they were received, outside of the callback which reported the TV
+     * response. A command which has to wait again, because the TV changed its power meanwhile, is held again.
+     */
+    private void releaseHeldCommands(final List<PowerStateMachine.HeldCommand> held) {
+        if (held.isEmpty()) {
+            return;
+        }
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (PowerStateMachine.HeldCommand command : held) {
+                    journal.record(EventJournal.Type.COMMAND, command.getChannel(),
+                            "released after " + command.getAge() + " ms: " + command.getCommand());
+                    if (power.mustHold(command.getChannel(), command.getCommand(), isReachable())) {
+                        holdCommand(command.getChannel(), command.getCommand());
+                        continue;
+                    }
+                    try {
+                        dispatchCommand(command.getChannel(), command.getCommand());
+                    } catch (CommunicationException e) {
+                        journal.record(EventJournal.Type.ERROR, command.getChannel(), e.getMessage());
                     }
                 }
             }
+        });
+    }
+
+    /*
+     * A state confirmed within the command filter age is answered right away. Otherwise the services fetch it,
+     * sharing a fetch already in flight. Communication errors leave the channel as it is.
+     */
+    private void refreshChannel(String channel) {
+        switch (channel) {
+            case PanasonicTV2BindingConstants.CHANNEL_POWER:
+                stateCoalescer.update(powerChannelUID, getPowerState() ? OnOffType.ON : OnOffType.OFF);
+                return;
+            case PanasonicTV2BindingConstants.CHANNEL_PRESET_SAVE:
+            case PanasonicTV2BindingConstants.CHANNEL_PRESET_RECALL:
+                return;
+        }
+
+        State cached = commandFilter.getState(channel);
+        if (cached != null) {
+            stateCoalescer.update(getChannelUID(channel), cached);
+            return;
+        }
+        if (!isReachable()) {
+            return;
+        }
+
+        for (PanasonicTV2Service service : services) {
+            if (service != null && service.getSupportedChannelNames().contains(channel)) {
+                try {
+                    service.handleCommand(channel, RefreshType.REFRESH);
+                } catch (CommunicationException e) {
+                    journal.record(EventJournal.Type.ERROR, channel, "refresh failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /*
+     * A preset captures what the items show, the states published last. Unlike the command filter these don't
+     * expire, a steady volume is saved however long ago it was polled.
+     */
+    private void savePreset(String name) {
+        stateCoalescer.flush();
+
+        Map<String, State> states = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String channel : PresetStore.CHANNELS) {
+            State state = publishedStates.get(channel);
+            if (state instanceof Command) {
+                states.put(channel, state);
+            } else if (linkedChannels.contains(channel)) {
+                missing.add(channel);
+            }
+        }
 
-            logger.warn("Channel '{}' not supported", channelUID);
+        if (presets.save(name, states)) {
+            journal.record(EventJournal.Type.COMMAND, PanasonicTV2BindingConstants.CHANNEL_PRESET_SAVE, states);
+            if (!missing.isEmpty()) {
+                logger.warn("Preset '{}' of thing '{}' saved without {}, state not known yet", name,
+                        getThing().getUID(), missing);
+                journal.record(EventJournal.Type.ERROR, PanasonicTV2BindingConstants.CHANNEL_PRESET_SAVE,
+                        "preset '" + name + "' incomplete, missing " + missing);
+            }
         } else {
-            logger.debug("Panasonic TV '{}' is OFFLINE", getThing().getUID());
+            logger.warn("Preset '{}' of thing '{}' not saved, invalid name or state not known yet", name,
+                    getThing().getUID());
+        }
+    }
+
+    /*
+     * Every command of the preset passes the command filter, so only settings which differ from the known state
+     * of the TV are sent. A TV which is switched off by the preset needs no other command.
+     */
+    private void recallPreset(String name) {
+        Map<String, Command> preset = presets.get(name);
+        if (preset == null) {
+            logger.warn("Thing '{}' has no preset '{}'", getThing().getUID(), name);
+            return;
+        }
+
+        if (OnOffType.OFF.equals(preset.get(PanasonicTV2BindingConstants.CHANNEL_POWER))) {
+            dispatchCommand(PanasonicTV2BindingConstants.CHANNEL_POWER, OnOffType.OFF);
+            return;
+        }
+        for (Map.Entry<String, Command> entry : preset.entrySet()) {
+            if (power.mustHold(entry.getKey(), entry.getValue(), isReachable())) {
+                holdCommand(entry.getKey(), entry.getValue());
+            } else {
+                dispatchCommand(entry.getKey(), entry.getValue());
+            }
         }
     }
 
@@ -130,8 +449,9 @@ public class PanasonicTV2Handler extends BaseThingHandler
     public void channelLinked(ChannelUID channelUID) {
         logger.debug("channelLinked: {}", channelUID);
 
-        updateState(new ChannelUID(getThing().getUID(), PanasonicTV2BindingConstants.CHANNEL_POWER),
-                getPowerState() ? OnOffType.ON : OnOffType.OFF);
+        linkedChannels.add(channelUID.getId());
+
+        stateCoalescer.update(powerChannelUID, getPowerState() ? OnOffType.ON : OnOffType.OFF);
 
         for (PanasonicTV2Service service : services) {
             if (service != null) {
@@ -140,12 +460,40 @@ public class PanasonicTV2Handler extends BaseThingHandler
         }
     }
 
+    @Override
+    public void channelUnlinked(ChannelUID channelUID) {
+        logger.debug("channelUnlinked: {}", channelUID);
+
+        if (!isLinked(channelUID.getId())) {
+            linkedChannels.remove(channelUID.getId());
+        }
+    }
+
+    /*
+     * A TV still answering while it shuts down doesn't count as switched on, otherwise the command filter would
+     * drop the next power on.
+     */
     private synchronized void updatePowerState(boolean state) {
-        powerOn = state;
+        if (state) {
+            boolean wasOn = getPowerState();
+            releaseHeldCommands(power.responded());
+            if (wasOn) {
+                commandFilter.confirm(PanasonicTV2BindingConstants.CHANNEL_POWER);
+                return;
+            }
+            if (!getPowerState()) {
+                return;
+            }
+            stateCoalescer.update(powerChannelUID, OnOffType.ON);
+        } else {
+            power.lost();
+            stateCoalescer.update(powerChannelUID, OnOffType.OFF);
+        }
+        commandFilter.update(PanasonicTV2BindingConstants.CHANNEL_POWER, state ? OnOffType.ON : OnOffType.OFF);
     }
 
-    private synchronized boolean getPowerState() {
-        return powerOn;
+    private boolean getPowerState() {
+        return power.getState() == PowerStateMachine.State.ON;
     }
 
     /*
@@ -164,6 +512,7 @@ public class PanasonicTV2Handler extends BaseThingHandler
 
     @Override
     public void initialize() {
+        disposed = false;
         updateStatus(ThingStatus.OFFLINE);
 
         configuration = getConfigAs(PanasonicTV2Configuration.class);
@@ -175,26 +524,292 @@ public class PanasonicTV2Handler extends BaseThingHandler
             return;
         }
 
+        // Polled states are trusted for two polling intervals
+        commandFilter.setMaxAge(2 * configuration.refreshInterval);
+        stateCoalescer.setWindow(configuration.stateUpdateWindow);
+
+        recorder = configuration.recordTraffic ? createTrafficRecorder() : null;
+        if (recorder != null) {
+            // The log is buffered, so a crash or a copy taken while running would miss the recent calls
+            final TrafficRecorder flushed = recorder;
+            recorderFlushJob = scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    flushed.flush();
+                }
+            }, TRAFFIC_FLUSH_INTERVAL, TRAFFIC_FLUSH_INTERVAL, TimeUnit.SECONDS);
+        }
+        breaker = new CircuitBreaker(configuration.breakerThreshold, configuration.breakerResetTime, this);
+        invoker = new UpnpActionInvoker(upnpIOService, upnpService, breaker,
+                configuration.connectTimeout + configuration.readTimeout, recorder, journal);
+
+        EncryptedSession session = null;
+        if (configuration.encrypted && configuration.isPaired()) {
+            try {
+                session = new EncryptedSession(configuration.applicationId, configuration.encryptionKey);
+            } catch (IllegalArgumentException e) {
+                updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.CONFIGURATION_ERROR,
+                        "Encryption key malformed, clear the application id to pair again");
+                return;
+            }
+        }
+
+        if (configuration.isDirectTransport()) {
+            communication = new PanasonicTV2Communication(configuration.hostName, configuration.port,
+                    configuration.connectTimeout, configuration.readTimeout, breaker, recorder, journal, session);
+        } else {
+            communication = null;
+        }
+
+        linkedChannels.clear();
+        for (Channel channel : getThing().getChannels()) {
+            if (isLinked(channel.getUID().getId())) {
+                linkedChannels.add(channel.getUID().getId());
+            }
+        }
+
+        serviceContext = new ServiceContext(upnpIOService, invoker, communication, scheduler,
+                new ChannelLineup(store), configuration, linkedChannels, journal, new CapabilityCache(store),
+                new AppCatalog(store), mediaServer);
+
+        if (configuration.encrypted && session == null) {
+            // Services start once the TV has been paired
+            pairingJob = scheduler.schedule(pairingRunnable, 0, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        startServices();
+    }
+
+    private void startServices() {
+        if (communication != null) {
+            createDirectServices();
+        }
+
         if (discoveryServiceRegistry != null) {
             discoveryServiceRegistry.addDiscoveryListener(this);
         }
+    }
+
+    private Runnable pairingRunnable = new Runnable() {
+        @Override
+        public void run() {
+            pair();
+        }
+    };
+
+    /*
+     * Pairing takes two steps. First the TV displays a PIN code and returns a challenge, which is stored since
+     * entering the PIN code re-initializes the handler. Then the PIN code is sent encrypted with keys derived
+     * from the challenge, and the TV assigns the application id and encryption key. These are saved in the
+     * configuration, so the TV is paired only once.
+     */
+    private void pair() {
+        if (disposed) {
+            return;
+        }
+
+        String challenge = store.get(PAIRING_CHALLENGE);
+        String pinCode = configuration.pinCode != null ? configuration.pinCode.trim() : "";
+        try {
+            if (challenge != null && !pinCode.isEmpty()) {
+                EncryptedSession session;
+                try {
+                    session = communication.authorize(challenge, pinCode);
+                } catch (IllegalArgumentException e) {
+                    // A corrupt challenge can never complete the pairing, it must not be kept for the next attempt
+                    logger.debug("Pairing challenge of thing '{}' malformed: {}", getThing().getUID(),
+                            e.getMessage());
+                    journal.record(EventJournal.Type.ERROR, "pairing", "challenge malformed");
+                    store.remove(PAIRING_CHALLENGE);
+                    requestPinCode("Pairing failed, enter the new PIN code displayed by the TV");
+                    return;
+                } catch (CommunicationException e) {
+                    logger.debug("Pairing thing '{}' failed: {}", getThing().getUID(), e.getMessage());
+                    journal.record(EventJournal.Type.ERROR, "pairing", e.getMessage());
+                    requestPinCode("PIN code rejected, enter the new PIN code displayed by the TV");
+                    return;
+                }
+                completePairing(session);
+            } else {
+                requestPinCode("Enter the PIN code displayed by the TV");
+            }
+        } catch (CommunicationException e) {
+            logger.debug("Unable to pair thing '{}': {}", getThing().getUID(), e.getMessage());
+            updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
+                    "TV unreachable for pairing, switch it on");
+            if (!disposed) {
+                pairingJob = scheduler.schedule(pairingRunnable, configuration.refreshInterval, TimeUnit.SECONDS);
+            }
+        }
+    }
 
+    private void requestPinCode(String message) {
+        String challenge = communication.requestPinCode(PAIRING_DEVICE_NAME);
+        store.put(PAIRING_CHALLENGE, challenge);
+        journal.record(EventJournal.Type.STATUS, "pairing", "PIN code requested");
+
+        if (configuration.pinCode != null) {
+            // A stale PIN code would be sent with the new challenge
+            Configuration config = editConfiguration();
+            config.remove(PanasonicTV2Configuration.PIN_CODE);
+            updateConfiguration(config);
+            configuration.pinCode = null;
+        }
+        updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.CONFIGURATION_PENDING, message);
+    }
+
+    private void completePairing(EncryptedSession session) {
+        store.remove(PAIRING_CHALLENGE);
+        journal.record(EventJournal.Type.STATUS, "pairing", "completed");
+        logger.debug("Paired thing '{}' with application id '{}'", getThing().getUID(), session.getApplicationId());
+
+        Configuration config = editConfiguration();
+        config.put(PanasonicTV2Configuration.APPLICATION_ID, session.getApplicationId());
+        config.put(PanasonicTV2Configuration.ENCRYPTION_KEY, session.getEncryptionKey());
+        config.remove(PanasonicTV2Configuration.PIN_CODE);
+        updateConfiguration(config);
+        configuration.applicationId = session.getApplicationId();
+        configuration.encryptionKey = session.getEncryptionKey();
+        configuration.pinCode = null;
+
+        communication.setSession(session);
+        updateStatus(ThingStatus.OFFLINE);
+        if (!disposed) {
+            startServices();
+        }
     }
 
     @Override
     public void dispose() {
+        disposed = true;
         if (discoveryServiceRegistry != null) {
             discoveryServiceRegistry.removeDiscoveryListener(this);
         }
         shutdown();
+        cancelBreakerProbe();
+        stateCoalescer.discard();
+        publishedStates.clear();
+
+        if (recorderFlushJob != null) {
+            recorderFlushJob.cancel(false);
+            recorderFlushJob = null;
+        }
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                logger.debug("Unable to close traffic log: {}", e.getMessage());
+            }
+            recorder = null;
+        }
+    }
+
+    /*
+     * Most parameters are applied to the running services, so the TV keeps its states, caches and discovered
+     * services. Only a different TV, traffic recording or the encryption keys need a full re-initialization.
+     */
+    @Override
+    public void handleConfigurationUpdate(Map<String, Object> configurationParameters) {
+        validateConfigurationParameters(configurationParameters);
+
+        Configuration config = editConfiguration();
+        for (Map.Entry<String, Object> parameter : configurationParameters.entrySet()) {
+            config.put(parameter.getKey(), parameter.getValue());
+        }
+        PanasonicTV2Configuration updated = config.as(PanasonicTV2Configuration.class);
+
+        synchronized (this) {
+            if (isInitialized() && !disposed && serviceContext != null && !requiresRebuild(configuration, updated)) {
+                updateConfiguration(config);
+                applyConfiguration(updated);
+                return;
+            }
+        }
+        super.handleConfigurationUpdate(configurationParameters);
+    }
+
+    private static boolean requiresRebuild(PanasonicTV2Configuration current, PanasonicTV2Configuration updated) {
+        return !Objects.equals(current.hostName, updated.hostName) || current.recordTraffic != updated.recordTraffic
+                || current.encrypted != updated.encrypted || !Objects.equals(current.pinCode, updated.pinCode)
+                || !Objects.equals(current.applicationId, updated.applicationId)
+                || !Objects.equals(current.encryptionKey, updated.encryptionKey)
+                // The session of an encrypted TV is bound to its endpoint
+                || (updated.encrypted && current.port != updated.port);
+    }
+
+    private synchronized void applyConfiguration(PanasonicTV2Configuration updated) {
+        logger.debug("Applying configuration of thing '{}' to the running services", getThing().getUID());
+        PanasonicTV2Configuration previous = configuration;
+        configuration = updated;
+
+        commandFilter.setMaxAge(2 * updated.refreshInterval);
+        stateCoalescer.setWindow(updated.stateUpdateWindow);
+        breaker.setLimits(updated.breakerThreshold, updated.breakerResetTime);
+        invoker.setTimeout(updated.connectTimeout + updated.readTimeout);
+
+        boolean transportChanged = previous.isDirectTransport() != updated.isDirectTransport()
+                || (updated.isDirectTransport() && previous.port != updated.port);
+        if (transportChanged) {
+            communication = updated.isDirectTransport()
+                    ? new PanasonicTV2Communication(updated.hostName, updated.port, updated.connectTimeout,
+                            updated.readTimeout, breaker, recorder, journal, null)
+                    : null;
+        } else if (communication != null) {
+            communication.setTimeouts(updated.connectTimeout, updated.readTimeout);
+        }
+
+        // Services created later, e.g. on rediscovery, see the new configuration too
+        serviceContext = new ServiceContext(upnpIOService, invoker, communication, scheduler,
+                serviceContext.getLineup(), updated, linkedChannels, journal, serviceContext.getCapabilities(),
+                serviceContext.getApps(), mediaServer);
+
+        if (transportChanged) {
+            // Only the remote controller depends on the transport, the other services keep running
+            PanasonicTV2Service remoteController = findServiceInstance(RemoteControllerService.SERVICE_NAME);
+            if (remoteController != null) {
+                stopService(remoteController);
+                services.remove(remoteController);
+            }
+            if (communication != null) {
+                createDirectServices();
+            } else if (upnpService != null && upnpThingUID != null) {
+                checkAndCreateServices();
+            }
+        }
+
+        for (PanasonicTV2Service service : services) {
+            service.applyConfiguration(updated);
+        }
+        journal.record(EventJournal.Type.STATUS, "configuration", transportChanged ? "applied, transport swapped"
+                : "applied");
+    }
+
+    private TrafficRecorder createTrafficRecorder() {
+        File file = new File(ConfigConstants.getUserDataFolder() + File.separator + "panasonictv2" + File.separator
+                + "traffic" + File.separator + getThing().getUID().getId() + ".ptv2");
+        try {
+            logger.debug("Recording traffic of thing '{}' to '{}'", getThing().getUID(), file);
+            return new TrafficRecorder(file);
+        } catch (IOException e) {
+            logger.warn("Unable to create traffic log '{}': {}", file, e.getMessage());
+            return null;
+        }
     }
 
     private void shutdown() {
-        if (upnpPollingJob != null && !upnpPollingJob.isCancelled()) {
-            upnpPollingJob.cancel(true);
+        ScheduledFuture<?> job = upnpPollingJob;
+        if (job != null && !job.isCancelled()) {
+            job.cancel(true);
             upnpPollingJob = null;
         }
 
+        job = pairingJob;
+        if (job != null && !job.isCancelled()) {
+            job.cancel(false);
+            pairingJob = null;
+        }
+
         if (upnpService != null) {
             upnpService.getRegistry().removeListener(this);
         }
@@ -237,7 +852,10 @@ public class PanasonicTV2Handler extends BaseThingHandler
     @Override
     public void remoteDeviceAdded(Registry registry, RemoteDevice device) {
         logger.debug("remoteDeviceAdded: device={}", device);
+        BindingEvents.Event event = BindingEvents.begin(BindingEvents.Kind.DISCOVERY, journal.getOwner(),
+                device.getType().getType());
         createService(device);
+        event.complete(TrafficRecord.Outcome.OK, 0);
     }
 
     @Override
@@ -247,6 +865,13 @@ public class PanasonicTV2Handler extends BaseThingHandler
     @Override
     public void remoteDeviceRemoved(Registry registry, RemoteDevice device) {
         logger.debug("remoteDeviceRemoved: device={}", device);
+
+        PanasonicTV2Configuration current = configuration;
+        if (current != null && current.hostName.equals(device.getIdentity().getDescriptorURL().getHost())) {
+            // The TV left the network, power on is sent again until it is rediscovered
+            commandFilter.forget(PanasonicTV2BindingConstants.CHANNEL_POWER);
+            putOffline();
+        }
     }
 
     @Override
@@ -273,43 +898,129 @@ public class PanasonicTV2Handler extends BaseThingHandler
     public void remoteDeviceDiscoveryFailed(Registry registry, RemoteDevice device, Exception ex) {
     }
 
-    public void putOnline() {
+    public synchronized void putOnline() {
         if (this.thing.getStatus() != ThingStatus.ONLINE) {
             updateStatus(ThingStatus.ONLINE);
-            updatePowerState(true);
-            updateState(new ChannelUID(getThing().getUID(), PanasonicTV2BindingConstants.CHANNEL_POWER), OnOffType.ON);
+            journal.record(EventJournal.Type.STATUS, "thing", ThingStatus.ONLINE);
         }
+        // A rediscovered TV may have finished booting while the thing stayed ONLINE
+        updatePowerState(true);
     }
 
     public synchronized void putOffline() {
         if (this.thing.getStatus() != ThingStatus.OFFLINE) {
             updateStatus(ThingStatus.OFFLINE);
-            updateState(new ChannelUID(getThing().getUID(), PanasonicTV2BindingConstants.CHANNEL_POWER), OnOffType.OFF);
+            journal.record(EventJournal.Type.STATUS, "thing", ThingStatus.OFFLINE);
             updatePowerState(false);
         }
     }
 
     @Override
-    public synchronized void valueReceived(String variable, State value) {
-        logger.debug("Received value '{}':'{}' for thing '{}'",
-                new Object[] { variable, value, this.getThing().getUID() });
+    public void breakerStateChanged(CircuitBreaker.State state) {
+        logger.debug("Circuit breaker of thing '{}' changed to {}", getThing().getUID(), state);
+        journal.record(EventJournal.Type.STATUS, "circuitBreaker", state);
+
+        switch (state) {
+            case OPEN:
+                updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
+                        "Circuit breaker open after repeated communication errors");
+                scheduleBreakerProbe();
+                break;
+            case HALF_OPEN:
+                updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
+                        "Circuit breaker half-open, probing TV");
+                break;
+            case CLOSED:
+                cancelBreakerProbe();
+                if (!services.isEmpty()) {
+                    putOnline();
+                }
+                break;
+        }
+    }
+
+    /*
+     * The probe keeps running until the breaker closes, a probe which failed opens the breaker again and the next
+     * one waits for the reset time once more.
+     */
+    private synchronized void scheduleBreakerProbe() {
+        if (breakerProbeJob != null || disposed) {
+            return;
+        }
+        int resetTime = Math.max(1, configuration.breakerResetTime);
+        breakerProbeJob = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                probeBreaker();
+            }
+        }, resetTime, resetTime, TimeUnit.MILLISECONDS);
+    }
 
-        updateState(new ChannelUID(getThing().getUID(), variable), value);
+    private synchronized void cancelBreakerProbe() {
+        if (breakerProbeJob != null) {
+            breakerProbeJob.cancel(false);
+            breakerProbeJob = null;
+        }
+    }
 
-        if (!getPowerState()) {
-            updatePowerState(true);
-            updateState(new ChannelUID(getThing().getUID(), PanasonicTV2BindingConstants.CHANNEL_POWER), OnOffType.ON);
+    /*
+     * The volume is the cheapest state to ask for. Without UPnP services the direct transport asks for the app
+     * list instead. Either call turns the breaker half-open once the reset time passed, an earlier one is
+     * rejected by the breaker without reaching the TV.
+     */
+    private void probeBreaker() {
+        CircuitBreaker current = breaker;
+        if (current == null || current.getState() != CircuitBreaker.State.OPEN) {
+            return;
+        }
+        try {
+            for (PanasonicTV2Service service : services) {
+                if (service != null
+                        && service.getSupportedChannelNames().contains(PanasonicTV2BindingConstants.CHANNEL_VOLUME)) {
+                    service.handleCommand(PanasonicTV2BindingConstants.CHANNEL_VOLUME, RefreshType.REFRESH);
+                    return;
+                }
+            }
+            PanasonicTV2Communication direct = communication;
+            if (direct != null) {
+                direct.invokeAction("X_GetAppList", "");
+            }
+        } catch (CommunicationException e) {
+            journal.record(EventJournal.Type.ERROR, "circuitBreaker", "probe failed: " + e.getMessage());
         }
     }
 
-    private void checkAndCreateServices() {
+    @Override
+    public synchronized void valueReceived(String variable, State value) {
+        journal.record(EventJournal.Type.STATE, variable, value);
+
+        stateCoalescer.update(getChannelUID(variable), value);
+        commandFilter.update(variable, value);
+
+        updatePowerState(true);
+    }
+
+    @Override
+    public synchronized void valueConfirmed(String variable) {
+        commandFilter.confirm(variable);
+
+        updatePowerState(true);
+    }
+
+    private synchronized void checkAndCreateServices() {
+        if (disposed) {
+            return;
+        }
         logger.debug("Check and create missing UPnP services");
+        BindingEvents.Event event = BindingEvents.begin(BindingEvents.Kind.DISCOVERY, journal.getOwner(),
+                "registryScan");
         Iterator<?> itr = upnpService.getRegistry().getDevices().iterator();
 
         while (itr.hasNext()) {
             RemoteDevice device = (RemoteDevice) itr.next();
             createService(device);
         }
+        event.complete(TrafficRecord.Outcome.OK, 0);
 
         if (upnpService != null) {
             upnpService.getRegistry().addListener(this);
@@ -317,6 +1028,9 @@ public class PanasonicTV2Handler extends BaseThingHandler
     }
 
     private synchronized void createService(RemoteDevice device) {
+        if (disposed) {
+            return;
+        }
         if (configuration != null) {
             if (configuration.hostName.equals(device.getIdentity().getDescriptorURL().getHost())) {
                 String modelName = device.getDetails().getModelDetails().getModelName();
@@ -327,13 +1041,15 @@ public class PanasonicTV2Handler extends BaseThingHandler
 
                 PanasonicTV2Service service = findServiceInstance(type);
                 if (service == null) {
-                    PanasonicTV2Service newService = ServiceFactory.createService(type, upnpIOService, udn,
-                            configuration.refreshInterval, configuration.hostName, configuration.port);
+                    BindingEvents.Event event = BindingEvents.begin(BindingEvents.Kind.SERVICE_CREATION,
+                            journal.getOwner(), type);
+                    PanasonicTV2Service newService = ServiceFactory.createService(type, udn, serviceContext);
 
                     if (newService != null) {
                         startService(newService);
                         services.add(newService);
                     }
+                    event.complete(newService != null ? TrafficRecord.Outcome.OK : TrafficRecord.Outcome.ERROR, 0);
                 } else {
                     logger.debug("Device rediscovered, clear caches");
                     service.clearCache();
@@ -347,6 +1063,25 @@ public class PanasonicTV2Handler extends BaseThingHandler
         }
     }
 
+    /*
+     * The remote controller service doesn't need UPnP when key codes are sent directly, so it is
+     * created right away instead of waiting for its UPnP device to be discovered.
+     */
+    private synchronized void createDirectServices() {
+        if (disposed) {
+            return;
+        }
+        if (findServiceInstance(RemoteControllerService.SERVICE_NAME) == null) {
+            BindingEvents.Event event = BindingEvents.begin(BindingEvents.Kind.SERVICE_CREATION, journal.getOwner(),
+                    RemoteControllerService.SERVICE_NAME);
+            PanasonicTV2Service newService = ServiceFactory.createService(RemoteControllerService.SERVICE_NAME,
+                    null, serviceContext);
+            startService(newService);
+            services.add(newService);
+            event.complete(TrafficRecord.Outcome.OK, 0);
+        }
+    }
+
     private PanasonicTV2Service findServiceInstance(String serviceName) {
         Class<?> cl = ServiceFactory.getClassByServiceName(serviceName);
 
@@ -377,7 +1112,7 @@ public class PanasonicTV2Handler extends BaseThingHandler
         }
     }
 
-    private void stopServices() {
+    private synchronized void stopServices() {
         logger.debug("Shutdown all UPnP services");
         for (PanasonicTV2Service service : services) {
             stopService(service);
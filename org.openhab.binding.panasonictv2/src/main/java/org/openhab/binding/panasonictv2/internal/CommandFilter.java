@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.smarthome.core.library.types.DecimalType;
+import org.eclipse.smarthome.core.library.types.IncreaseDecreaseType;
+import org.eclipse.smarthome.core.library.types.OnOffType;
+import org.eclipse.smarthome.core.types.Command;
+import org.eclipse.smarthome.core.types.State;
+import org.openhab.binding.panasonictv2.PanasonicTV2BindingConstants;
+
+/**
+ * The {@link CommandFilter} compares commands with the last known state of a Panasonic TV and detects
+ * commands which would not change anything. Dropping those saves round trips.
+ *
+ * Known states are only trusted while they are fresh. A poll returning an unchanged state confirms it, so steady
+ * states stay fresh while the TV is polled. The input is not judged here either, the TV doesn't report it and the
+ * physical remote changes it unnoticed. Power is not judged here, a TV which isn't polled would let its power
+ * state expire and the toggling NRC_POWER key switch it off, see {@link PowerStateMachine#isNoOp}.
+ *
+ * @author Charky - Initial contribution
+ */
+public class CommandFilter {
+
+    private static final int MIN_VOLUME = 0;
+    private static final int MAX_VOLUME = 100;
+
+    private static class KnownState {
+        private final State state;
+        private final long updated;
+
+        KnownState(State state) {
+            this.state = state;
+            this.updated = System.nanoTime();
+        }
+    }
+
+    private final Map<String, KnownState> states = new ConcurrentHashMap<>();
+    private volatile long maxAgeNanos;
+
+    /**
+     * Procedure to set how long polled states are trusted.
+     *
+     * @param maxAge Time in seconds a polled state is trusted
+     */
+    public void setMaxAge(int maxAge) {
+        this.maxAgeNanos = TimeUnit.SECONDS.toNanos(maxAge);
+    }
+
+    /**
+     * Procedure to update the known state of a channel.
+     *
+     * @param channel Id of the channel
+     * @param state New state, commands are accepted as expected state after they have been sent
+     */
+    public void update(String channel, State state) {
+        states.put(channel, new KnownState(state));
+    }
+
+    /**
+     * Procedure to mark the known state of a channel as fresh, e.g. after a poll returned it unchanged. An unknown
+     * state stays unknown.
+     *
+     * @param channel Id of the channel
+     */
+    public void confirm(String channel) {
+        KnownState known = states.get(channel);
+        if (known != null) {
+            // A concurrent update wins over the confirmation of the older state
+            states.replace(channel, known, new KnownState(known.state));
+        }
+    }
+
+    /**
+     * Procedure to forget the known state of a channel, e.g. when the TV disappeared from the network.
+     *
+     * @param channel Id of the channel
+     */
+    public void forget(String channel) {
+        states.remove(channel);
+    }
+
+    /**
+     * Procedure to get the known state of a channel if it can be trusted.
+     *
+     * @param channel Id of the channel
+     * @return Fresh known state or null if unknown or expired
+     */
+    public State getState(String channel) {
+        KnownState known = states.get(channel);
+        if (known == null || isExpired(known)) {
+            return null;
+        }
+        return known.state;
+    }
+
+    /**
+     * Procedure to forget all known states.
+     */
+    public void clear() {
+        states.clear();
+    }
+
+    /**
+     * Procedure to check whether a command would leave the TV unchanged.
+     *
+     * @param channel Id of the channel
+     * @param command Command to check
+     * @return true if the command matches the fresh known state and can be dropped
+     */
+    public boolean isNoOp(String channel, Command command) {
+        KnownState known = states.get(channel);
+        if (known == null) {
+            return false;
+        }
+        if (isExpired(known)) {
+            return false;
+        }
+
+        switch (channel) {
+            case PanasonicTV2BindingConstants.CHANNEL_MUTE:
+                return command instanceof OnOffType && command.equals(known.state);
+
+            case PanasonicTV2BindingConstants.CHANNEL_VOLUME:
+                if (!(known.state instanceof DecimalType)) {
+                    return false;
+                }
+                int volume = ((DecimalType) known.state).intValue();
+                if (command instanceof DecimalType) {
+                    return ((DecimalType) command).intValue() == volume;
+                }
+                return (command == IncreaseDecreaseType.INCREASE && volume >= MAX_VOLUME)
+                        || (command == IncreaseDecreaseType.DECREASE && volume <= MIN_VOLUME);
+
+            case PanasonicTV2BindingConstants.CHANNEL_CHANNEL:
+                return command instanceof DecimalType && known.state instanceof DecimalType
+                        && ((DecimalType) command).intValue() == ((DecimalType) known.state).intValue();
+
+            default:
+                return false;
+        }
+    }
+
+    private boolean isExpired(KnownState known) {
+        return System.nanoTime() - known.updated > maxAgeNanos;
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The {@link EventJournal} keeps the most recent events of a single Panasonic TV in a fixed-size ring buffer.
+ * Recording is lock-free and cheap enough to stay enabled all the time, so a TV can be diagnosed by dumping
+ * its journal instead of enabling debug logging for the whole binding.
+ *
+ * Details are stored as given and only formatted when the journal is dumped.
+ *
+ * @author Charky - Initial contribution
+ */
+public class EventJournal {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    public enum Type {
+        COMMAND,
+        ACTION,
+        STATE,
+        STATUS,
+        ERROR
+    }
+
+    /**
+     * A single recorded event.
+     */
+    public static class Entry {
+        private final long sequence;
+        private final long nanos;
+        private final Type type;
+        private final String subject;
+        private final Object detail;
+
+        Entry(long sequence, long nanos, Type type, String subject, Object detail) {
+            this.sequence = sequence;
+            this.nanos = nanos;
+            this.type = type;
+            this.subject = subject;
+            this.detail = detail;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return {@link System#nanoTime()} when the event was recorded
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getSubject() {
+            return subject;
+        }
+
+        public Object getDetail() {
+            return detail;
+        }
+    }
+
+    private final String owner;
+    private final AtomicReferenceArray<Entry> entries;
+    private final int mask;
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final long startNanos = System.nanoTime();
+    private final long startMillis = System.currentTimeMillis();
+
+    /**
+     * @param owner UID of the thing the events belong to
+     */
+    public EventJournal(String owner) {
+        this(owner, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param owner UID of the thing the events belong to
+     * @param capacity Number of events kept, rounded up to a power of two
+     */
+    public EventJournal(String owner, int capacity) {
+        this.owner = owner;
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        entries = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * @return UID of the thing the events belong to
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * Procedure to record an event, overwriting the oldest one if the journal is full.
+     *
+     * @param type Type of the event
+     * @param subject Channel, action or variable the event is about
+     * @param detail Command, state, latency in nanoseconds or error, formatted only when the journal is dumped
+     */
+    public void record(Type type, String subject, Object detail) {
+        long seq = sequence.getAndIncrement();
+        entries.lazySet((int) (seq & mask), new Entry(seq, System.nanoTime(), type, subject, detail));
+    }
+
+    /**
+     * Procedure to take a snapshot of the journal. Events overwritten while the snapshot is taken are skipped.
+     *
+     * @return Recorded events, oldest first
+     */
+    public List<Entry> snapshot() {
+        long end = sequence.get();
+        long begin = Math.max(0, end - entries.length());
+
+        List<Entry> result = new ArrayList<>((int) (end - begin));
+        for (long seq = begin; seq < end; seq++) {
+            Entry entry = entries.get((int) (seq & mask));
+            if (entry != null && entry.sequence == seq) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Procedure to format the journal for humans, one event per line.
+     *
+     * @return Formatted events, oldest first
+     */
+    public String dump() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        StringBuilder sb = new StringBuilder();
+        for (Entry entry : snapshot()) {
+            long elapsed = entry.nanos - startNanos;
+            // Wall clock with nanosecond resolution: milliseconds from the date, the rest from the offset
+            sb.append(format.format(new Date(startMillis + TimeUnit.NANOSECONDS.toMillis(elapsed))));
+            sb.append(String.format("%06d %-7s ", elapsed % 1000000, entry.type)).append(entry.subject);
+            if (entry.type == Type.ACTION && entry.detail instanceof Long) {
+                sb.append(": ").append(TimeUnit.NANOSECONDS.toMicros((Long) entry.detail)).append(" us");
+            } else if (entry.detail != null) {
+                sb.append(": ").append(entry.detail);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,509 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.DatagramSocket;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.smarthome.core.common.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link MediaServer} serves local media files to the Panasonic TVs casting them. It is shared by all TVs
+ * and started on the first cast.
+ *
+ * Only files in the media folder are served, each under a random token for as long as it is cast. Range
+ * requests are supported, so the TVs can seek. File data is sent with {@link FileChannel#transferTo}, the bytes
+ * go from the page cache to the socket without being copied through the heap. Responses are written in
+ * non-blocking mode with a deadline, a TV which stops reading is disconnected instead of blocking a thread.
+ *
+ * @author Charky - Initial contribution
+ */
+public class MediaServer {
+
+    private static final String THREAD_POOL_NAME = "panasonictv2-media";
+
+    /** Number of connections served at the same time, a TV usually opens one or two */
+    private static final int MAX_CONNECTIONS = 64;
+
+    /** Time in milliseconds an idle connection is kept open, or a response waits for the TV to read on */
+    private static final int SOCKET_TIMEOUT = 30000;
+
+    private static final int MAX_HEADER_BYTES = 8192;
+
+    /** Byte seek supported, streaming transfer mode */
+    private static final String DLNA_FEATURES = "DLNA.ORG_OP=01;DLNA.ORG_FLAGS=01700000000000000000000000000000";
+
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+    static {
+        CONTENT_TYPES.put("mp4", "video/mp4");
+        CONTENT_TYPES.put("m4v", "video/mp4");
+        CONTENT_TYPES.put("mkv", "video/x-matroska");
+        CONTENT_TYPES.put("ts", "video/mp2t");
+        CONTENT_TYPES.put("avi", "video/x-msvideo");
+        CONTENT_TYPES.put("mov", "video/quicktime");
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("mp3", "audio/mpeg");
+        CONTENT_TYPES.put("m4a", "audio/mp4");
+        CONTENT_TYPES.put("wav", "audio/wav");
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(MediaServer.class);
+
+    private final Path mediaFolder;
+    private final int timeout;
+
+    /** Published files by token */
+    private final Map<String, Path> published = new ConcurrentHashMap<>();
+
+    private ServerSocketChannel serverChannel;
+    private ThreadPoolExecutor executor;
+
+    /**
+     * A connection in non-blocking mode, waiting a limited time whenever the TV doesn't accept more data.
+     */
+    private static class Writer {
+        private final SocketChannel channel;
+        private final Selector selector;
+        private final int timeout;
+
+        Writer(SocketChannel channel, Selector selector, int timeout) {
+            this.channel = channel;
+            this.selector = selector;
+            this.timeout = timeout;
+        }
+
+        /**
+         * Procedure to wait until the socket buffer has room again.
+         *
+         * @throws IOException if the TV read nothing within the timeout, or the server is stopped
+         */
+        void awaitWritable() throws IOException {
+            if (selector.select(timeout) == 0) {
+                throw new IOException("TV stalled, no data accepted within " + timeout + " ms");
+            }
+            selector.selectedKeys().clear();
+        }
+    }
+
+    /**
+     * @param mediaFolder Folder holding the files which may be cast
+     */
+    public MediaServer(Path mediaFolder) {
+        this(mediaFolder, SOCKET_TIMEOUT);
+    }
+
+    /**
+     * @param mediaFolder Folder holding the files which may be cast
+     * @param timeout Time in milliseconds an idle connection is kept open, or a response waits for the TV to read on
+     */
+    MediaServer(Path mediaFolder, int timeout) {
+        this.mediaFolder = mediaFolder.toAbsolutePath().normalize();
+        this.timeout = timeout;
+    }
+
+    public Path getMediaFolder() {
+        return mediaFolder;
+    }
+
+    /**
+     * Procedure to resolve the name of a media file.
+     *
+     * @param name Path of the file relative to the media folder
+     * @return Readable file within the media folder, null if there is no such file
+     */
+    public Path resolve(String name) {
+        Path file = mediaFolder.resolve(name).normalize();
+        if (!file.startsWith(mediaFolder) || !Files.isRegularFile(file) || !Files.isReadable(file)) {
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Procedure to publish a file for a TV, starting the server if needed.
+     *
+     * @param file File returned by {@link #resolve(String)}
+     * @param tvHost Host name of the TV, used to pick the local address the TV can reach
+     * @return URL of the file
+     * @throws IOException if the server can't be started
+     */
+    public synchronized String publish(Path file, String tvHost) throws IOException {
+        start();
+
+        String token = UUID.randomUUID().toString();
+        published.put(token, file);
+        return "http://" + getLocalAddress(tvHost) + ":" + serverChannel.socket().getLocalPort() + "/" + token + "/"
+                + encode(file.getFileName().toString());
+    }
+
+    /**
+     * Procedure to stop serving a published file. Transfers already running are completed.
+     *
+     * @param url URL returned by {@link #publish(Path, String)}
+     */
+    public void unpublish(String url) {
+        Iterator<String> tokens = published.keySet().iterator();
+        while (tokens.hasNext()) {
+            if (url.contains("/" + tokens.next() + "/")) {
+                tokens.remove();
+            }
+        }
+    }
+
+    /**
+     * Procedure to get the content type of a media file.
+     *
+     * @param name Name or URL of the file
+     * @return Content type by file extension, application/octet-stream if unknown
+     */
+    public static String getContentType(String name) {
+        String extension = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+        String contentType = CONTENT_TYPES.get(extension);
+        return contentType != null ? contentType : "application/octet-stream";
+    }
+
+    private void start() throws IOException {
+        if (serverChannel != null) {
+            return;
+        }
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(0));
+        executor = new ThreadPoolExecutor(0, MAX_CONNECTIONS, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new NamedThreadFactory(THREAD_POOL_NAME, true));
+
+        final ServerSocketChannel channel = serverChannel;
+        Thread acceptor = new NamedThreadFactory(THREAD_POOL_NAME + "-acceptor", true).newThread(new Runnable() {
+            @Override
+            public void run() {
+                accept(channel);
+            }
+        });
+        acceptor.start();
+        logger.debug("Media server serving '{}' on port {}", mediaFolder, channel.socket().getLocalPort());
+    }
+
+    /**
+     * Procedure to stop the server. Published files are forgotten.
+     */
+    public synchronized void stop() {
+        published.clear();
+        if (serverChannel != null) {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                logger.debug("Unable to close media server: {}", e.getMessage());
+            }
+            serverChannel = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private void accept(ServerSocketChannel channel) {
+        ThreadPoolExecutor connections = executor;
+        while (channel.isOpen()) {
+            final SocketChannel client;
+            try {
+                client = channel.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                logger.debug("Media server accept failed: {}", e.getMessage());
+                continue;
+            }
+
+            try {
+                connections.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(client);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                logger.debug("Media server busy, connection dropped");
+                close(client);
+            }
+        }
+    }
+
+    private void serve(SocketChannel client) {
+        try {
+            client.socket().setSoTimeout(timeout);
+            client.socket().setTcpNoDelay(true);
+            // The timeout only applies to reading the stream of the socket, writes have their own deadline
+            InputStream in = new BufferedInputStream(client.socket().getInputStream());
+            while (serveRequest(client, in)) {
+                // keep-alive
+            }
+        } catch (IOException e) {
+            logger.trace("Media connection closed: {}", e.getMessage());
+        } finally {
+            close(client);
+        }
+    }
+
+    /*
+     * Serves one request, returns true if the connection is kept open for another one.
+     */
+    private boolean serveRequest(SocketChannel client, InputStream in) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        String requestLine = readHead(in, headers);
+        if (requestLine == null) {
+            return false;
+        }
+
+        // The stream of the socket can only be read in blocking mode, so the mode is switched for each response
+        client.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            client.register(selector, SelectionKey.OP_WRITE);
+            return respond(new Writer(client, selector, timeout), requestLine, headers);
+        } finally {
+            // Closing the selector deregistered the channel
+            client.configureBlocking(true);
+        }
+    }
+
+    private boolean respond(Writer client, String requestLine, Map<String, String> headers) throws IOException {
+        String[] request = requestLine.split(" ");
+        if (request.length != 3) {
+            writeHead(client, "400 Bad Request", null, 0, null, false);
+            return false;
+        }
+        String method = request[0];
+        boolean keepAlive = "HTTP/1.1".equals(request[2]) && !"close".equalsIgnoreCase(headers.get("connection"));
+
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            writeHead(client, "405 Method Not Allowed", null, 0, null, keepAlive);
+            return keepAlive;
+        }
+
+        // Target is /<token>/<name>
+        String[] segments = request[1].split("/");
+        Path file = segments.length >= 2 ? published.get(segments[1]) : null;
+        if (file == null) {
+            writeHead(client, "404 Not Found", null, 0, null, keepAlive);
+            return keepAlive;
+        }
+
+        try (FileChannel data = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = data.size();
+            long start = 0;
+            long length = size;
+            String status = "200 OK";
+            String contentRange = null;
+
+            String range = headers.get("range");
+            if (range != null) {
+                long[] bounds = parseRange(range, size);
+                if (bounds == null) {
+                    writeHead(client, "416 Range Not Satisfiable", null, 0, "bytes */" + size, keepAlive);
+                    return keepAlive;
+                }
+                if (bounds.length == 2) {
+                    start = bounds[0];
+                    length = bounds[1] - bounds[0] + 1;
+                    status = "206 Partial Content";
+                    contentRange = "bytes " + bounds[0] + "-" + bounds[1] + "/" + size;
+                }
+            }
+
+            writeHead(client, status, getContentType(file.getFileName().toString()), length, contentRange,
+                    keepAlive);
+            if ("GET".equals(method)) {
+                transfer(data, start, length, client);
+            }
+        }
+        return keepAlive;
+    }
+
+    private static void transfer(FileChannel data, long start, long length, Writer client) throws IOException {
+        long position = start;
+        long remaining = length;
+        while (remaining > 0) {
+            long sent = data.transferTo(position, remaining, client.channel);
+            if (sent <= 0) {
+                if (position >= data.size()) {
+                    throw new IOException("File truncated while sending");
+                }
+                client.awaitWritable();
+                continue;
+            }
+            position += sent;
+            remaining -= sent;
+        }
+    }
+
+    /*
+     * Only a single byte range is supported. Multiple ranges are ignored and answered with the whole file, which
+     * HTTP allows. Returns the first and last byte, an empty array to send the whole file, or null if the range
+     * is not satisfiable.
+     */
+    private static long[] parseRange(String range, long size) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+
+        try {
+            long first;
+            long last;
+            if (dash == 0) {
+                // Suffix range, the last n bytes
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return null;
+                }
+                first = Math.max(0, size - suffix);
+                last = size - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = dash == spec.length() - 1 ? size - 1
+                        : Math.min(Long.parseLong(spec.substring(dash + 1)), size - 1);
+            }
+            if (first >= size || first > last) {
+                return null;
+            }
+            return new long[] { first, last };
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static String readHead(InputStream in, Map<String, String> headers) throws IOException {
+        String requestLine = null;
+        StringBuilder line = new StringBuilder();
+        int total = 0;
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (++total > MAX_HEADER_BYTES) {
+                throw new IOException("Request head too large");
+            }
+            if (b == '\r') {
+                continue;
+            }
+            if (b != '\n') {
+                line.append((char) b);
+                continue;
+            }
+
+            if (line.length() == 0) {
+                if (requestLine != null) {
+                    return requestLine;
+                }
+                // Tolerate empty lines before the request line
+                continue;
+            }
+            if (requestLine == null) {
+                requestLine = line.toString();
+            } else {
+                int colon = line.indexOf(":");
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                            line.substring(colon + 1).trim());
+                }
+            }
+            line.setLength(0);
+        }
+        return null;
+    }
+
+    private static void writeHead(Writer client, String status, String contentType, long length,
+            String contentRange, boolean keepAlive) throws IOException {
+        StringBuilder head = new StringBuilder(256);
+        head.append("HTTP/1.1 ").append(status).append("\r\n");
+        if (contentType != null) {
+            head.append("Content-Type: ").append(contentType).append("\r\n");
+            head.append("transferMode.dlna.org: ")
+                    .append(contentType.startsWith("image/") ? "Interactive" : "Streaming").append("\r\n");
+            head.append("contentFeatures.dlna.org: ").append(DLNA_FEATURES).append("\r\n");
+        }
+        head.append("Content-Length: ").append(length).append("\r\n");
+        if (contentRange != null) {
+            head.append("Content-Range: ").append(contentRange).append("\r\n");
+        }
+        head.append("Accept-Ranges: bytes\r\n");
+        head.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+
+        ByteBuffer buffer = ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        while (buffer.hasRemaining()) {
+            if (client.channel.write(buffer) == 0) {
+                client.awaitWritable();
+            }
+        }
+    }
+
+    private static String getLocalAddress(String tvHost) throws IOException {
+        // Connecting a datagram socket sends nothing, but selects the local address routing to the TV
+        InetAddress local = null;
+        try (DatagramSocket probe = new DatagramSocket()) {
+            probe.connect(InetAddress.getByName(tvHost), 9);
+            local = probe.getLocalAddress();
+        }
+        if (local == null || local.isAnyLocalAddress()) {
+            local = InetAddress.getLocalHost();
+        }
+        return local instanceof Inet6Address ? "[" + local.getHostAddress() + "]" : local.getHostAddress();
+    }
+
+    private static String encode(String name) {
+        try {
+            return URLEncoder.encode(name, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            return "media";
+        }
+    }
+
+    private void close(SocketChannel client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            logger.trace("Unable to close media connection: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.smarthome.core.thing.Thing;
+import org.eclipse.smarthome.core.thing.ThingRegistry;
+import org.eclipse.smarthome.core.thing.ThingUID;
+import org.eclipse.smarthome.io.console.Console;
+import org.eclipse.smarthome.io.console.extensions.AbstractConsoleCommandExtension;
+import org.openhab.binding.panasonictv2.handler.PanasonicTV2Handler;
+import org.openhab.binding.panasonictv2.internal.protocol.TrafficRecord;
+import org.openhab.binding.panasonictv2.internal.protocol.TrafficRecorder;
+import org.openhab.binding.panasonictv2.internal.service.TrafficReplayer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link PanasonicTV2ConsoleCommandExtension} dumps the event journal of a Panasonic TV on the console and
+ * replays traffic logs through the services to benchmark them.
+ *
+ * @author Charky - Initial contribution
+ */
+public class PanasonicTV2ConsoleCommandExtension extends AbstractConsoleCommandExtension {
+
+    private static final String SUBCMD_JOURNAL = "journal";
+    private static final String SUBCMD_REPLAY = "replay";
+
+    private final Logger logger = LoggerFactory.getLogger(PanasonicTV2ConsoleCommandExtension.class);
+
+    private ThingRegistry thingRegistry;
+
+    public PanasonicTV2ConsoleCommandExtension() {
+        super("panasonictv2", "Diagnose Panasonic TVs.");
+    }
+
+    @Override
+    public void execute(String[] args, Console console) {
+        if (args.length == 2 && SUBCMD_JOURNAL.equals(args[0])) {
+            Thing thing = thingRegistry.get(new ThingUID(args[1]));
+            if (thing == null || !(thing.getHandler() instanceof PanasonicTV2Handler)) {
+                console.println("No Panasonic TV with UID '" + args[1] + "'");
+                return;
+            }
+            console.print(((PanasonicTV2Handler) thing.getHandler()).getJournal().dump());
+        } else if ((args.length == 2 || args.length == 3) && SUBCMD_REPLAY.equals(args[0])) {
+            replay(args[1], args.length == 3 ? args[2] : null, console);
+        } else {
+            printUsage(console);
+        }
+    }
+
+    @Override
+    public List<String> getUsages() {
+        return Arrays.asList(
+                buildCommandUsage(SUBCMD_JOURNAL + " <thingUID>",
+                        "dumps the recent commands, actions, state changes and errors of a TV"),
+                buildCommandUsage(SUBCMD_REPLAY + " <traffic log> [speed]",
+                        "replays a traffic log through the services, by default without delays"));
+    }
+
+    private void replay(String path, String speed, Console console) {
+        double replaySpeed;
+        try {
+            replaySpeed = speed == null ? 0 : Double.parseDouble(speed);
+        } catch (NumberFormatException e) {
+            console.println("Speed '" + speed + "' is no number");
+            return;
+        }
+
+        List<TrafficRecord> records;
+        try {
+            records = TrafficRecorder.read(new File(path));
+        } catch (IOException e) {
+            console.println("Unable to read traffic log '" + path + "': " + e.getMessage());
+            return;
+        }
+
+        TrafficReplayer.Statistics statistics = new TrafficReplayer(records, replaySpeed).replay(null);
+        logger.info("Replay of traffic log '{}': {}", path, statistics);
+        console.println(statistics.toString());
+    }
+
+    protected void setThingRegistry(ThingRegistry thingRegistry) {
+        this.thingRegistry = thingRegistry;
+    }
+
+    protected void unsetThingRegistry(ThingRegistry thingRegistry) {
+        this.thingRegistry = null;
+    }
+}
@@ -8,19 +8,28 @@
  */
 package org.openhab.binding.panasonictv2.internal;
 
-import static org.openhab.binding.panasonictv2.PanasonicTV2BindingConstants.THING_TYPE_PANASONICTV;
+import static org.openhab.binding.panasonictv2.PanasonicTV2BindingConstants.*;
 
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Set;
 
+import org.eclipse.smarthome.config.core.ConfigConstants;
 import org.eclipse.smarthome.config.discovery.DiscoveryServiceRegistry;
+import org.eclipse.smarthome.core.storage.Storage;
+import org.eclipse.smarthome.core.storage.StorageService;
+import org.eclipse.smarthome.core.thing.Bridge;
 import org.eclipse.smarthome.core.thing.Thing;
 import org.eclipse.smarthome.core.thing.ThingTypeUID;
 import org.eclipse.smarthome.core.thing.binding.BaseThingHandlerFactory;
 import org.eclipse.smarthome.core.thing.binding.ThingHandler;
 import org.eclipse.smarthome.io.transport.upnp.UpnpIOService;
 import org.jupnp.UpnpService;
+import org.openhab.binding.panasonictv2.handler.PanasonicTV2GroupHandler;
 import org.openhab.binding.panasonictv2.handler.PanasonicTV2Handler;
+import org.osgi.service.component.ComponentContext;
 
 /**
  * The {@link PanasonicTV2HandlerFactory} is responsible for creating things and thing
@@ -30,11 +39,19 @@ import org.openhab.binding.panasonictv2.handler.PanasonicTV2Handler;
  */
 public class PanasonicTV2HandlerFactory extends BaseThingHandlerFactory {
 
-    private static final Set<ThingTypeUID> SUPPORTED_THING_TYPES_UIDS = Collections.singleton(THING_TYPE_PANASONICTV);
+    private static final Set<ThingTypeUID> SUPPORTED_THING_TYPES_UIDS = Collections
+            .unmodifiableSet(new HashSet<>(Arrays.asList(THING_TYPE_PANASONICTV, THING_TYPE_GROUP)));
+
+    private static final String STORAGE_NAME = "org.openhab.binding.panasonictv2";
 
     private UpnpIOService upnpIOService;
     private DiscoveryServiceRegistry discoveryServiceRegistry;
     private UpnpService upnpService;
+    private Storage<String> storage;
+
+    /** Serves local media cast to the TVs, started on the first cast */
+    private final MediaServer mediaServer = new MediaServer(
+            Paths.get(ConfigConstants.getUserDataFolder(), "panasonictv2", "media"));
 
     @Override
     public boolean supportsThingType(ThingTypeUID thingTypeUID) {
@@ -46,12 +63,23 @@ public class PanasonicTV2HandlerFactory extends BaseThingHandlerFactory {
         ThingTypeUID thingTypeUID = thing.getThingTypeUID();
 
         if (thingTypeUID.equals(THING_TYPE_PANASONICTV)) {
-            return new PanasonicTV2Handler(thing, upnpIOService, discoveryServiceRegistry, upnpService);
+            return new PanasonicTV2Handler(thing, upnpIOService, discoveryServiceRegistry, upnpService,
+                    storage, mediaServer);
+        }
+
+        if (thingTypeUID.equals(THING_TYPE_GROUP)) {
+            return new PanasonicTV2GroupHandler((Bridge) thing);
         }
 
         return null;
     }
 
+    @Override
+    protected void deactivate(ComponentContext componentContext) {
+        mediaServer.stop();
+        super.deactivate(componentContext);
+    }
+
     protected void setUpnpIOService(UpnpIOService upnpIOService) {
         this.upnpIOService = upnpIOService;
     }
@@ -76,4 +104,12 @@ public class PanasonicTV2HandlerFactory extends BaseThingHandlerFactory {
         this.upnpService = null;
     }
 
+    protected void setStorageService(StorageService storageService) {
+        this.storage = storageService.getStorage(STORAGE_NAME);
+    }
+
+    protected void unsetStorageService(StorageService storageService) {
+        this.storage = null;
+    }
+
 }
@@ -0,0 +1,226 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.smarthome.core.library.types.OnOffType;
+import org.eclipse.smarthome.core.types.Command;
+import org.openhab.binding.panasonictv2.PanasonicTV2BindingConstants;
+
+/**
+ * The {@link PowerStateMachine} tracks the power of a Panasonic TV through its transitions. After NRC_POWER
+ * the TV needs several seconds to boot or shut down, commands received meanwhile are held in a bounded
+ * buffer and released once the TV responds, instead of failing or being dropped.
+ *
+ * Held commands expire after a while, a command for a state channel replaces an older one for the same
+ * channel, and the oldest command is dropped when the buffer is full.
+ *
+ * @author Charky - Initial contribution
+ */
+public class PowerStateMachine {
+
+    public enum State {
+        OFF,
+        BOOTING,
+        ON,
+        SHUTTING_DOWN
+    }
+
+    /** Number of commands held at most */
+    private static final int CAPACITY = 16;
+
+    /** Time a held command stays valid */
+    private static final long TTL = TimeUnit.SECONDS.toNanos(30);
+
+    /** Time after which a TV which didn't respond is considered off again */
+    private static final long BOOT_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+    /** Time a TV keeps answering while shutting down */
+    private static final long SHUTDOWN_TIME = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * A command held during a power transition.
+     */
+    public static class HeldCommand {
+        private final String channel;
+        private final Command command;
+        private final long received;
+
+        HeldCommand(String channel, Command command) {
+            this.channel = channel;
+            this.command = command;
+            this.received = System.nanoTime();
+        }
+
+        public String getChannel() {
+            return channel;
+        }
+
+        public Command getCommand() {
+            return command;
+        }
+
+        /**
+         * @return Time in milliseconds the command has been held
+         */
+        public long getAge() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - received);
+        }
+
+        private boolean isExpired(long now) {
+            return now - received >= TTL;
+        }
+    }
+
+    private State state = State.OFF;
+    private long transitionStarted;
+    private final Deque<HeldCommand> held = new ArrayDeque<>(CAPACITY);
+
+    /**
+     * @return Current state, a transition the TV didn't complete in time has ended in OFF
+     */
+    public synchronized State getState() {
+        long now = System.nanoTime();
+        if ((state == State.BOOTING && now - transitionStarted >= BOOT_TIMEOUT)
+                || (state == State.SHUTTING_DOWN && now - transitionStarted >= SHUTDOWN_TIME)) {
+            state = State.OFF;
+        }
+        return state;
+    }
+
+    /**
+     * Procedure to check whether a command has to be held.
+     *
+     * @param channel Channel of the command
+     * @param command Command to send
+     * @param reachable true if commands can be sent to the TV right now
+     * @return true if the command should be held rather than sent
+     */
+    public synchronized boolean mustHold(String channel, Command command, boolean reachable) {
+        boolean power = PanasonicTV2BindingConstants.CHANNEL_POWER.equals(channel);
+        switch (getState()) {
+            case ON:
+                return false;
+            case BOOTING:
+            case SHUTTING_DOWN:
+                // Reversing the transition is sent right away, everything else waits for the TV
+                return !power;
+            default:
+                // Switching on can only be tried, other commands wait until the TV is back
+                return !power && !reachable;
+        }
+    }
+
+    /**
+     * Procedure to check whether a power command would leave the TV unchanged. NRC_POWER toggles, so switching on
+     * is never sent to a TV which is on, booting, or whose state is unknown while it answers on the network.
+     *
+     * @param command Power command
+     * @param online true if the TV answers on the network, as tracked by the status of the thing
+     * @return true if the command must not be sent
+     */
+    public synchronized boolean isNoOp(Command command, boolean online) {
+        State current = getState();
+        if (OnOffType.ON.equals(command)) {
+            return current == State.ON || current == State.BOOTING || (current == State.OFF && online);
+        }
+        if (OnOffType.OFF.equals(command)) {
+            return current == State.SHUTTING_DOWN || (current == State.OFF && !online);
+        }
+        return false;
+    }
+
+    /**
+     * Procedure to hold a command until the TV responds.
+     *
+     * @param channel Channel of the command
+     * @param command Command to hold
+     * @return Command dropped to make room, null if none was dropped
+     */
+    public synchronized HeldCommand hold(String channel, Command command) {
+        long now = System.nanoTime();
+        purgeExpired(now);
+
+        if (isStateChannel(channel)) {
+            Iterator<HeldCommand> iterator = held.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().channel.equals(channel)) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        HeldCommand dropped = held.size() >= CAPACITY ? held.pollFirst() : null;
+        held.addLast(new HeldCommand(channel, command));
+        return dropped;
+    }
+
+    /**
+     * Procedure to report a power command which has been sent to the TV.
+     *
+     * @param command Power command
+     */
+    public synchronized void powerCommandSent(Command command) {
+        State current = getState();
+        if (OnOffType.ON.equals(command) && (current == State.OFF || current == State.SHUTTING_DOWN)) {
+            transition(State.BOOTING);
+        } else if (OnOffType.OFF.equals(command) && (current == State.ON || current == State.BOOTING)) {
+            transition(State.SHUTTING_DOWN);
+        }
+    }
+
+    /**
+     * Procedure to report that the TV responded. A TV still answering while shutting down is ignored.
+     *
+     * @return Held commands which are still valid, in the order they were received
+     */
+    public synchronized List<HeldCommand> responded() {
+        if (getState() == State.SHUTTING_DOWN) {
+            return Collections.emptyList();
+        }
+        state = State.ON;
+
+        purgeExpired(System.nanoTime());
+        if (held.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<HeldCommand> released = new ArrayList<>(held);
+        held.clear();
+        return released;
+    }
+
+    /**
+     * Procedure to report that the TV left the network. Held commands are kept until they expire.
+     */
+    public synchronized void lost() {
+        state = State.OFF;
+    }
+
+    private void transition(State newState) {
+        state = newState;
+        transitionStarted = System.nanoTime();
+    }
+
+    private void purgeExpired(long now) {
+        while (!held.isEmpty() && held.peekFirst().isExpired(now)) {
+            held.pollFirst();
+        }
+    }
+
+    private static boolean isStateChannel(String channel) {
+        return PresetStore.CHANNELS.contains(channel);
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.smarthome.core.library.types.DecimalType;
+import org.eclipse.smarthome.core.library.types.OnOffType;
+import org.eclipse.smarthome.core.library.types.StringType;
+import org.eclipse.smarthome.core.types.Command;
+import org.eclipse.smarthome.core.types.State;
+import org.openhab.binding.panasonictv2.PanasonicTV2BindingConstants;
+
+/**
+ * The {@link PresetStore} keeps named snapshots of the state of a Panasonic TV, persisted per TV.
+ *
+ * Presets are returned as commands in the order they should be restored: power first, then the cheap single
+ * call settings, then the input, the channel last since it takes several paced key presses and only applies
+ * to the TV input.
+ *
+ * @author Charky - Initial contribution
+ */
+public class PresetStore {
+
+    private static final String STORE_KEY = "presets";
+
+    /** Channels saved in a preset, cheapest to restore first */
+    public static final List<String> CHANNELS = Collections.unmodifiableList(Arrays.asList(
+            PanasonicTV2BindingConstants.CHANNEL_POWER, PanasonicTV2BindingConstants.CHANNEL_MUTE,
+            PanasonicTV2BindingConstants.CHANNEL_VOLUME, PanasonicTV2BindingConstants.CHANNEL_INPUT,
+            PanasonicTV2BindingConstants.CHANNEL_CHANNEL));
+
+    private final ThingDataStore store;
+    private final Map<String, Map<String, Command>> presets = new TreeMap<>();
+
+    public PresetStore(ThingDataStore store) {
+        this.store = store;
+        decode(store.get(STORE_KEY));
+    }
+
+    /**
+     * Procedure to save a preset, replacing one with the same name.
+     *
+     * @param name Name of the preset
+     * @param states Known states by channel id, channels which are not part of a preset are ignored
+     * @return false if the name is invalid or none of the preset channels has a known state
+     */
+    public boolean save(String name, Map<String, State> states) {
+        if (!isValidName(name)) {
+            return false;
+        }
+
+        Map<String, Command> preset = new LinkedHashMap<>();
+        for (String channel : CHANNELS) {
+            State state = states.get(channel);
+            if (state instanceof Command) {
+                preset.put(channel, (Command) state);
+            }
+        }
+        if (preset.isEmpty()) {
+            return false;
+        }
+
+        synchronized (this) {
+            presets.put(name, preset);
+            store.put(STORE_KEY, encode());
+        }
+        return true;
+    }
+
+    /**
+     * Procedure to get a preset.
+     *
+     * @param name Name of the preset
+     * @return Commands by channel id in restore order, null if there is no such preset
+     */
+    public synchronized Map<String, Command> get(String name) {
+        Map<String, Command> preset = presets.get(name);
+        return preset != null ? Collections.unmodifiableMap(preset) : null;
+    }
+
+    private static boolean isValidName(String name) {
+        return name != null && !name.isEmpty() && name.indexOf('=') < 0 && name.indexOf('\n') < 0;
+    }
+
+    private String encode() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Map<String, Command>> preset : presets.entrySet()) {
+            sb.append(preset.getKey()).append('=');
+            for (Map.Entry<String, Command> entry : preset.getValue().entrySet()) {
+                sb.append(entry.getKey()).append(':').append(entry.getValue()).append(',');
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private void decode(String encoded) {
+        if (encoded == null) {
+            return;
+        }
+        for (String line : encoded.split("\n")) {
+            int separator = line.indexOf('=');
+            if (separator <= 0) {
+                continue;
+            }
+
+            Map<String, String> values = new HashMap<>();
+            for (String value : line.substring(separator + 1).split(",")) {
+                int colon = value.indexOf(':');
+                if (colon > 0) {
+                    values.put(value.substring(0, colon), value.substring(colon + 1));
+                }
+            }
+
+            Map<String, Command> preset = new LinkedHashMap<>();
+            for (String channel : CHANNELS) {
+                Command command = parse(channel, values.get(channel));
+                if (command != null) {
+                    preset.put(channel, command);
+                }
+            }
+            if (!preset.isEmpty()) {
+                presets.put(line.substring(0, separator), preset);
+            }
+        }
+    }
+
+    private static Command parse(String channel, String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            switch (channel) {
+                case PanasonicTV2BindingConstants.CHANNEL_POWER:
+                case PanasonicTV2BindingConstants.CHANNEL_MUTE:
+                    return OnOffType.valueOf(value);
+                case PanasonicTV2BindingConstants.CHANNEL_INPUT:
+                    return new StringType(value);
+                default:
+                    return new DecimalType(value);
+            }
+        } catch (IllegalArgumentException e) {
+            // skip corrupt value, NumberFormatException included
+            return null;
+        }
+    }
+}
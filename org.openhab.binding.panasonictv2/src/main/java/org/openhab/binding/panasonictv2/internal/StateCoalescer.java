@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.smarthome.core.thing.ChannelUID;
+import org.eclipse.smarthome.core.types.State;
+
+/**
+ * The {@link StateCoalescer} collects the state updates of a single Panasonic TV for a short window and publishes
+ * only the final state of each channel. A single poll result or a cleared cache emits several channels at once,
+ * and a channel may change more than once within the window, so this keeps redundant updates off the event bus.
+ *
+ * The window starts with the first update, so an update is delayed by at most one window. A window of 0 publishes
+ * every update right away.
+ *
+ * @author Charky - Initial contribution
+ */
+public class StateCoalescer {
+
+    /**
+     * Receiver of the coalesced state updates.
+     */
+    public interface Publisher {
+        void publish(ChannelUID channelUID, State state);
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Publisher publisher;
+
+    /** Pending states in the order their channels were first updated, guarded by this */
+    private final Map<ChannelUID, State> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> flushJob;
+    private volatile long window;
+
+    /** Held while a flush publishes, so overlapping flushes can't publish an older state last */
+    private final Object publishLock = new Object();
+
+    private final Runnable flushRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public StateCoalescer(ScheduledExecutorService scheduler, Publisher publisher) {
+        this.scheduler = scheduler;
+        this.publisher = publisher;
+    }
+
+    /**
+     * Procedure to change the window, pending updates are published right away if coalescing is switched off.
+     *
+     * @param window Time in milliseconds updates are collected, 0 to publish every update right away
+     */
+    public void setWindow(int window) {
+        this.window = Math.max(0, window);
+        if (window <= 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Procedure to publish a state once the current window has passed. A later update of the same channel within
+     * the window replaces this one.
+     *
+     * @param channelUID Channel the state belongs to
+     * @param state New state
+     */
+    public void update(ChannelUID channelUID, State state) {
+        long delay = window;
+        if (delay <= 0) {
+            publisher.publish(channelUID, state);
+            return;
+        }
+
+        synchronized (this) {
+            pending.put(channelUID, state);
+            if (flushJob == null) {
+                flushJob = scheduler.schedule(flushRunnable, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Procedure to publish all pending updates right away.
+     */
+    public void flush() {
+        synchronized (publishLock) {
+            Map<ChannelUID, State> states;
+            synchronized (this) {
+                if (flushJob != null) {
+                    flushJob.cancel(false);
+                    flushJob = null;
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                states = new LinkedHashMap<>(pending);
+                pending.clear();
+            }
+
+            for (Map.Entry<ChannelUID, State> entry : states.entrySet()) {
+                publisher.publish(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Procedure to drop all pending updates, e.g. when the thing is disposed.
+     */
+    public synchronized void discard() {
+        if (flushJob != null) {
+            flushJob.cancel(false);
+            flushJob = null;
+        }
+        pending.clear();
+    }
+}
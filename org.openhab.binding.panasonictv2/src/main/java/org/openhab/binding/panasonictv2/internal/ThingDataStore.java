@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal;
+
+import org.eclipse.smarthome.core.storage.Storage;
+import org.eclipse.smarthome.core.thing.ThingUID;
+
+/**
+ * The {@link ThingDataStore} keeps data learned from a single Panasonic TV across restarts. All TVs share
+ * the binding storage, entries are kept apart by prefixing the keys with the thing UID.
+ *
+ * @author Charky - Initial contribution
+ */
+public class ThingDataStore {
+
+    private final Storage<String> storage;
+    private final String prefix;
+
+    /**
+     * @param storage Binding storage, may be null if no storage service is available
+     * @param thingUID UID of the TV thing
+     */
+    public ThingDataStore(Storage<String> storage, ThingUID thingUID) {
+        this.storage = storage;
+        this.prefix = thingUID.getAsString() + ".";
+    }
+
+    public String get(String key) {
+        return storage != null ? storage.get(prefix + key) : null;
+    }
+
+    public void put(String key, String value) {
+        if (storage != null) {
+            storage.put(prefix + key, value);
+        }
+    }
+
+    public void remove(String key) {
+        if (storage != null) {
+            storage.remove(prefix + key);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal.jfr;
+
+import org.openhab.binding.panasonictv2.internal.protocol.TrafficRecord;
+
+/**
+ * The {@link BindingEvents} emit Java Flight Recorder events for the activity of the binding, so a slow TV can be
+ * related to garbage collection and thread activity in the same recording.
+ *
+ * The JFR event types are compiled separately by the jfr build profile, so the bundle builds and runs on every
+ * Java 8 runtime. They are only loaded if they are part of the bundle and the runtime provides the JFR API, which
+ * requires Java 8u262 or later and the framework to export jdk.jfr, e.g. with
+ * org.osgi.framework.system.packages.extra=jdk.jfr in the system properties of the framework. Otherwise every
+ * event is a no-op. An event disabled in the recording settings costs a single check.
+ *
+ * @author Charky - Initial contribution
+ */
+public final class BindingEvents {
+
+    public enum Kind {
+        KEY_SEND,
+        POLL,
+        UPNP_ACTION,
+        SOAP_CALL,
+        XML_PARSE,
+        DISCOVERY,
+        SERVICE_CREATION
+    }
+
+    /**
+     * An event which has begun and is committed to the recording once the activity is complete.
+     */
+    public interface Event {
+
+        /**
+         * Procedure to end the event and commit it to the recording.
+         *
+         * @param outcome Outcome of the activity
+         * @param payloadSize Bytes sent or parsed, 0 if not applicable
+         */
+        void complete(TrafficRecord.Outcome outcome, long payloadSize);
+    }
+
+    /**
+     * Creates the events, implemented with the JFR API.
+     */
+    interface Recorder {
+
+        /**
+         * @return Begun event, null if events of that kind are disabled in the recording settings
+         */
+        Event begin(Kind kind, String thingUID, String name);
+    }
+
+    private static final String RECORDER_CLASS = "org.openhab.binding.panasonictv2.internal.jfr.FlightRecorderEvents";
+
+    private static final Event DISABLED = new Event() {
+        @Override
+        public void complete(TrafficRecord.Outcome outcome, long payloadSize) {
+        }
+    };
+
+    private static final Recorder RECORDER = loadRecorder();
+
+    private BindingEvents() {
+    }
+
+    /**
+     * Procedure to begin an event, the duration is measured until it is completed.
+     *
+     * @param kind Kind of the activity
+     * @param thingUID UID of the thing the activity belongs to
+     * @param name Action, key or device type the activity is about
+     * @return Event to complete, never null
+     */
+    public static Event begin(Kind kind, String thingUID, String name) {
+        if (RECORDER == null) {
+            return DISABLED;
+        }
+        Event event = RECORDER.begin(kind, thingUID, name);
+        return event != null ? event : DISABLED;
+    }
+
+    private static Recorder loadRecorder() {
+        ClassLoader classLoader = BindingEvents.class.getClassLoader();
+        try {
+            Class.forName("jdk.jfr.Event", false, classLoader);
+            return (Recorder) Class.forName(RECORDER_CLASS, true, classLoader).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
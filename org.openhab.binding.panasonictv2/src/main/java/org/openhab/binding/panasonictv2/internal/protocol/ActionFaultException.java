@@ -0,0 +1,38 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal.protocol;
+
+/**
+ * The {@link ActionFaultException} is thrown when the Panasonic TV answered an action with a fault. Unlike other
+ * communication errors it proves the TV reachable and says something about the action itself.
+ *
+ * @author Charky - Initial contribution
+ */
+public class ActionFaultException extends CommunicationException {
+
+    private static final long serialVersionUID = -2308190532281735618L;
+
+    public static final String ERROR_INVALID_ACTION = "401";
+
+    private final String errorCode;
+
+    /**
+     * @param message Description of the fault
+     * @param errorCode UPnP error code of the fault, or the HTTP status if the TV sent no UPnP error, null if
+     *            unknown
+     */
+    public ActionFaultException(String message, String errorCode) {
+        super(message);
+        this.errorCode = errorCode;
+    }
+
+    public String getErrorCode() {
+        return errorCode;
+    }
+}
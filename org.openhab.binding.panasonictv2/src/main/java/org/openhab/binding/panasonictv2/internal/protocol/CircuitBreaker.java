@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal.protocol;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link CircuitBreaker} guards all interactions with a single Panasonic TV. After a number of consecutive
+ * failures the breaker opens and calls fail fast. Once the reset time has passed, a single probe call is let
+ * through (half-open); its outcome decides whether the breaker closes again or stays open.
+ *
+ * @author Charky - Initial contribution
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Interface for receiving breaker state changes.
+     */
+    public interface StateListener {
+        /**
+         * Invoked when the breaker changed its state.
+         *
+         * @param state New state of the breaker
+         */
+        public void breakerStateChanged(State state);
+    }
+
+    private int failureThreshold;
+    private long resetTimeNanos;
+    private final StateListener listener;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    /**
+     * @param failureThreshold Number of consecutive failures which open the breaker
+     * @param resetTime Time in milliseconds the breaker stays open before a probe is let through
+     * @param listener Listener informed about state changes, may be null
+     */
+    public CircuitBreaker(int failureThreshold, long resetTime, StateListener listener) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.resetTimeNanos = TimeUnit.MILLISECONDS.toNanos(resetTime);
+        this.listener = listener;
+    }
+
+    /**
+     * Procedure to check whether a call may be made now. A caller which got true must report the outcome with
+     * {@link #recordSuccess()} or {@link #recordFailure()}.
+     *
+     * @return true if the call may be made, false if it has to fail fast
+     */
+    public boolean allowRequest() {
+        boolean changed = false;
+        boolean allowed;
+
+        synchronized (this) {
+            switch (state) {
+                case OPEN:
+                    if (System.nanoTime() - openedAt >= resetTimeNanos) {
+                        state = State.HALF_OPEN;
+                        probeInFlight = true;
+                        changed = true;
+                        allowed = true;
+                    } else {
+                        allowed = false;
+                    }
+                    break;
+                case HALF_OPEN:
+                    allowed = !probeInFlight;
+                    probeInFlight = true;
+                    break;
+                default:
+                    allowed = true;
+            }
+        }
+
+        if (changed) {
+            notifyListener(State.HALF_OPEN);
+        }
+        return allowed;
+    }
+
+    public void recordSuccess() {
+        boolean changed;
+
+        synchronized (this) {
+            consecutiveFailures = 0;
+            probeInFlight = false;
+            changed = state != State.CLOSED;
+            state = State.CLOSED;
+        }
+
+        if (changed) {
+            notifyListener(State.CLOSED);
+        }
+    }
+
+    public void recordFailure() {
+        boolean changed = false;
+
+        synchronized (this) {
+            consecutiveFailures++;
+            probeInFlight = false;
+            if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+                state = State.OPEN;
+                openedAt = System.nanoTime();
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            notifyListener(State.OPEN);
+        }
+    }
+
+    /**
+     * Procedure to report a call which was cancelled before its outcome was known. It neither counts as success
+     * nor as failure, but allows the next probe when the breaker is half-open.
+     */
+    public synchronized void recordCancelled() {
+        probeInFlight = false;
+    }
+
+    /**
+     * Procedure to change the limits of the breaker without losing its state.
+     *
+     * @param failureThreshold Number of consecutive failures which open the breaker
+     * @param resetTime Time in milliseconds the breaker stays open before a probe is let through
+     */
+    public synchronized void setLimits(int failureThreshold, long resetTime) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.resetTimeNanos = TimeUnit.MILLISECONDS.toNanos(resetTime);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void notifyListener(State newState) {
+        if (listener != null) {
+            listener.breakerStateChanged(newState);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal.protocol;
+
+/**
+ * The {@link CommunicationException} is thrown when a call to the Panasonic TV failed, timed out or was
+ * rejected by the circuit breaker.
+ *
+ * @author Charky - Initial contribution
+ */
+public class CommunicationException extends RuntimeException {
+
+    private static final long serialVersionUID = 8347619243075226012L;
+
+    public CommunicationException(String message) {
+        super(message);
+    }
+
+    public CommunicationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,297 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The {@link EncryptedSession} holds the keys and the session of a Panasonic TV which only accepts encrypted
+ * commands. Pairing once yields an application id and an encryption key, from which the AES and HMAC keys
+ * are derived. A session id is requested once and then reused for every command, each command carrying the
+ * next sequence number, until the TV rejects the session.
+ *
+ * Payloads are prefixed with 12 random bytes and their length, encrypted with AES-CBC and signed with
+ * HMAC-SHA256.
+ *
+ * @author Charky - Initial contribution
+ */
+public class EncryptedSession {
+
+    /** Mask deriving the pairing HMAC key from the challenge, as used by the Panasonic remote app */
+    private static final int[] HMAC_KEY_MASK = { 0x15, 0xC9, 0x5A, 0xC2, 0xB0, 0x8A, 0xA7, 0xEB, 0x4E, 0x22, 0x8F,
+            0x81, 0x1E, 0x34, 0xD0, 0x4F, 0xA5, 0x4B, 0xA7, 0xDC, 0xAC, 0x98, 0x79, 0xFA, 0x8A, 0xCD, 0xA3, 0xFC,
+            0x24, 0x4F, 0x38, 0x54 };
+
+    private static final int HEADER_LENGTH = 16;
+    private static final int RANDOM_LENGTH = 12;
+    private static final int BLOCK_SIZE = 16;
+    private static final int HMAC_LENGTH = 32;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final String applicationId;
+    private final String encryptionKey;
+    private final Keys keys;
+
+    private String sessionId;
+    private long sequenceNumber;
+
+    /**
+     * AES key, IV and HMAC key of a payload exchange.
+     */
+    public static class Keys {
+        private final byte[] key;
+        private final byte[] iv;
+        private final byte[] hmacKey;
+
+        Keys(byte[] key, byte[] iv, byte[] hmacKey) {
+            this.key = key;
+            this.iv = iv;
+            this.hmacKey = hmacKey;
+        }
+    }
+
+    /**
+     * @param applicationId Application id assigned by the TV during pairing
+     * @param encryptionKey Base64 encryption key assigned by the TV during pairing
+     * @throws IllegalArgumentException if the encryption key is malformed
+     */
+    public EncryptedSession(String applicationId, String encryptionKey) {
+        this.applicationId = applicationId;
+        this.encryptionKey = encryptionKey;
+        this.keys = deriveSessionKeys(Base64.getDecoder().decode(encryptionKey));
+    }
+
+    public String getApplicationId() {
+        return applicationId;
+    }
+
+    public String getEncryptionKey() {
+        return encryptionKey;
+    }
+
+    /**
+     * @return true if a session id has been assigned and not been rejected since
+     */
+    public synchronized boolean isOpen() {
+        return sessionId != null;
+    }
+
+    /**
+     * Procedure to start using a session assigned by the TV.
+     *
+     * @param sessionId Session id
+     * @param sequenceNumber Sequence number the TV expects to be incremented
+     */
+    public synchronized void open(String sessionId, long sequenceNumber) {
+        this.sessionId = sessionId;
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    /**
+     * Procedure to drop the session after the TV rejected it, the next command requests a new one.
+     */
+    public synchronized void invalidate() {
+        sessionId = null;
+    }
+
+    /**
+     * @return Encrypted argument of the X_GetEncryptSessionId action
+     */
+    public String encryptSessionRequest() {
+        return encrypt("<X_ApplicationId>" + applicationId + "</X_ApplicationId>", keys);
+    }
+
+    /**
+     * Procedure to wrap a command into the session, incrementing the sequence number.
+     *
+     * @param action Name of the original action
+     * @param namespace Namespace of the service of the action
+     * @param arguments Already escaped XML of the action arguments
+     * @return Encrypted argument of the X_EncryptedCommand action
+     * @throws IllegalStateException if the session is not open
+     */
+    public synchronized String wrapCommand(String action, String namespace, String arguments) {
+        if (sessionId == null) {
+            throw new IllegalStateException("Encrypted session not open");
+        }
+        sequenceNumber++;
+        String command = String.format(
+                "<X_SessionId>%s</X_SessionId><X_SequenceNumber>%08d</X_SequenceNumber>"
+                        + "<X_OriginalCommand><u:%s xmlns:u=\"%s\">%s</u:%s></X_OriginalCommand>",
+                sessionId, sequenceNumber, action, namespace, arguments, action);
+        return encrypt(command, keys);
+    }
+
+    /**
+     * Procedure to decrypt a result of the TV within the session.
+     *
+     * @param data Base64 encrypted result
+     * @return Decrypted XML
+     */
+    public String decrypt(String data) {
+        return decrypt(data, keys);
+    }
+
+    /**
+     * @return Keys of the session, e.g. to play the part of the TV in tests
+     */
+    Keys getKeys() {
+        return keys;
+    }
+
+    /**
+     * Procedure to derive the keys protecting the PIN code during pairing.
+     *
+     * @param challenge Base64 challenge key returned by X_DisplayPinCode
+     * @return Pairing keys
+     * @throws IllegalArgumentException if the challenge is no Base64 or has the wrong length
+     */
+    public static Keys derivePairingKeys(String challenge) {
+        byte[] iv = Base64.getDecoder().decode(challenge);
+        if (iv.length != BLOCK_SIZE) {
+            throw new IllegalArgumentException("Challenge key has " + iv.length + " bytes");
+        }
+
+        byte[] key = new byte[BLOCK_SIZE];
+        for (int i = 0; i < BLOCK_SIZE; i += 4) {
+            key[i] = (byte) ~iv[i + 3];
+            key[i + 1] = (byte) ~iv[i + 2];
+            key[i + 2] = (byte) ~iv[i + 1];
+            key[i + 3] = (byte) ~iv[i];
+        }
+
+        byte[] hmacKey = new byte[HMAC_KEY_MASK.length];
+        for (int i = 0; i < hmacKey.length; i += 4) {
+            hmacKey[i] = (byte) (HMAC_KEY_MASK[i] ^ iv[(i + 2) & 0xF]);
+            hmacKey[i + 1] = (byte) (HMAC_KEY_MASK[i + 1] ^ iv[(i + 3) & 0xF]);
+            hmacKey[i + 2] = (byte) (HMAC_KEY_MASK[i + 2] ^ iv[i & 0xF]);
+            hmacKey[i + 3] = (byte) (HMAC_KEY_MASK[i + 3] ^ iv[(i + 1) & 0xF]);
+        }
+        return new Keys(key, iv, hmacKey);
+    }
+
+    private static Keys deriveSessionKeys(byte[] iv) {
+        if (iv.length != BLOCK_SIZE) {
+            throw new IllegalArgumentException("Encryption key has " + iv.length + " bytes");
+        }
+
+        byte[] key = new byte[BLOCK_SIZE];
+        for (int i = 0; i < BLOCK_SIZE; i += 4) {
+            key[i] = iv[i + 2];
+            key[i + 1] = iv[i + 3];
+            key[i + 2] = iv[i];
+            key[i + 3] = iv[i + 1];
+        }
+
+        // The HMAC key is the IV repeated twice
+        byte[] hmacKey = new byte[2 * BLOCK_SIZE];
+        System.arraycopy(iv, 0, hmacKey, 0, BLOCK_SIZE);
+        System.arraycopy(iv, 0, hmacKey, BLOCK_SIZE, BLOCK_SIZE);
+        return new Keys(key, iv, hmacKey);
+    }
+
+    /**
+     * Procedure to encrypt and sign a payload.
+     *
+     * @param payload Payload to encrypt
+     * @param keys Keys of the exchange
+     * @return Base64 ciphertext followed by its signature
+     */
+    public static String encrypt(String payload, Keys keys) {
+        byte[] data = payload.getBytes(StandardCharsets.UTF_8);
+
+        // Header of random bytes and payload length, zero padded to full blocks
+        int length = HEADER_LENGTH + data.length;
+        ByteBuffer plain = ByteBuffer.allocate((length + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE);
+        byte[] random = new byte[RANDOM_LENGTH];
+        RANDOM.nextBytes(random);
+        plain.put(random).putInt(data.length).put(data);
+
+        try {
+            Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keys.key, "AES"), new IvParameterSpec(keys.iv));
+            byte[] encrypted = cipher.doFinal(plain.array());
+            byte[] signature = sign(encrypted, keys);
+
+            byte[] result = Arrays.copyOf(encrypted, encrypted.length + signature.length);
+            System.arraycopy(signature, 0, result, encrypted.length, signature.length);
+            return Base64.getEncoder().encodeToString(result);
+        } catch (GeneralSecurityException e) {
+            throw new CommunicationException("Unable to encrypt payload", e);
+        }
+    }
+
+    /**
+     * Procedure to verify and decrypt a payload. The signature is optional, results of the TV may come without.
+     *
+     * @param data Base64 ciphertext, optionally followed by its signature
+     * @param keys Keys of the exchange
+     * @return Decrypted payload
+     * @throws CommunicationException if the payload is malformed or its signature doesn't match
+     */
+    public static String decrypt(String data, Keys keys) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getDecoder().decode(data.trim());
+        } catch (IllegalArgumentException e) {
+            throw new CommunicationException("Encrypted payload is no Base64", e);
+        }
+
+        try {
+            byte[] encrypted = bytes;
+            if (bytes.length % BLOCK_SIZE != 0 && bytes.length > HMAC_LENGTH) {
+                encrypted = Arrays.copyOf(bytes, bytes.length - HMAC_LENGTH);
+                byte[] signature = Arrays.copyOfRange(bytes, encrypted.length, bytes.length);
+                if (!MessageDigest.isEqual(signature, sign(encrypted, keys))) {
+                    throw new CommunicationException("Signature of encrypted payload doesn't match");
+                }
+            } else if (bytes.length >= HEADER_LENGTH + HMAC_LENGTH && bytes.length % BLOCK_SIZE == 0) {
+                // A signature is a multiple of the block size too, use it if it matches
+                byte[] candidate = Arrays.copyOf(bytes, bytes.length - HMAC_LENGTH);
+                byte[] signature = Arrays.copyOfRange(bytes, candidate.length, bytes.length);
+                if (MessageDigest.isEqual(signature, sign(candidate, keys))) {
+                    encrypted = candidate;
+                }
+            }
+            if (encrypted.length < HEADER_LENGTH || encrypted.length % BLOCK_SIZE != 0) {
+                throw new CommunicationException("Encrypted payload has " + encrypted.length + " bytes");
+            }
+
+            Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(keys.key, "AES"), new IvParameterSpec(keys.iv));
+            byte[] plain = cipher.doFinal(encrypted);
+
+            int length = ByteBuffer.wrap(plain, RANDOM_LENGTH, 4).getInt();
+            if (length < 0 || length > plain.length - HEADER_LENGTH) {
+                length = plain.length - HEADER_LENGTH;
+            }
+            return new String(plain, HEADER_LENGTH, length, StandardCharsets.UTF_8).trim();
+        } catch (GeneralSecurityException e) {
+            throw new CommunicationException("Unable to decrypt payload", e);
+        }
+    }
+
+    private static byte[] sign(byte[] data, Keys keys) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(keys.hmacKey, "HmacSHA256"));
+        return mac.doFinal(data);
+    }
+}
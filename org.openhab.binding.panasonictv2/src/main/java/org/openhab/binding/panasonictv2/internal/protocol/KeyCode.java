@@ -21,6 +21,12 @@ public enum KeyCode {
     NRC_AD_CHANGE("NRC_AD_CHANGE-ONOFF"), // dvbt input change
     NRC_CHG_INPUT("NRC_CHG_INPUT-ONOFF"), // hdmi input change
 
+    NRC_TV("NRC_TV-ONOFF"), // direct input selection, not supported by all models
+    NRC_HDMI1("NRC_HDMI1-ONOFF"),
+    NRC_HDMI2("NRC_HDMI2-ONOFF"),
+    NRC_HDMI3("NRC_HDMI3-ONOFF"),
+    NRC_HDMI4("NRC_HDMI4-ONOFF"),
+
     NRC_VOLDOWN("NRC_VOLDOWN-ONOFF"), // separate ON and OFF commands exists, can be used instead repeating ONOFF
     NRC_VOLDOWN_ON("NRC_VOLDOWN-ON"),
     NRC_VOLDOWN_OFF("NRC_VOLDOWN-OFF"),
@@ -1,20 +1,18 @@
 package org.openhab.binding.panasonictv2.internal.protocol;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-
-import javax.xml.namespace.QName;
-import javax.xml.soap.MessageFactory;
-import javax.xml.soap.MimeHeaders;
-import javax.xml.soap.SOAPBody;
-import javax.xml.soap.SOAPBodyElement;
-import javax.xml.soap.SOAPConnection;
-import javax.xml.soap.SOAPConnectionFactory;
-import javax.xml.soap.SOAPElement;
-import javax.xml.soap.SOAPException;
-import javax.xml.soap.SOAPMessage;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.openhab.binding.panasonictv2.PanasonicTV2BindingConstants;
+import org.openhab.binding.panasonictv2.internal.EventJournal;
+import org.openhab.binding.panasonictv2.internal.jfr.BindingEvents;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,66 +28,380 @@ import org.slf4j.LoggerFactory;
 
 public class PanasonicTV2Communication {
 
+    private static final String SOAP_ENVELOPE = "<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+            + "<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\""
+            + " s:encodingStyle=\"http://schemas.xmlsoap.org/soap/encoding/\">"
+            + "<s:Body><u:%1$s xmlns:u=\"%2$s\">%3$s</u:%1$s></s:Body></s:Envelope>";
+
     // Logging
     private final Logger logger = LoggerFactory.getLogger(PanasonicTV2Communication.class);
     // URL
     private URL url;
-    //
-    private MessageFactory messageFactory;
-    // The SOAP connection
-    private SOAPConnection soapConnection;
+    // Timeouts in milliseconds
+    private volatile int connectTimeout;
+    private volatile int readTimeout;
 
-    public PanasonicTV2Communication(String host) {
-        try {
-            messageFactory = MessageFactory.newInstance();
-            soapConnection = SOAPConnectionFactory.newInstance().createConnection();
+    // Circuit breaker of the TV
+    private CircuitBreaker breaker;
+    // Recorder for the traffic to the TV, may be null
+    private TrafficRecorder recorder;
+    // Event journal of the TV
+    private EventJournal journal;
+    // Session of a TV which only accepts encrypted commands, null if commands are sent in plain
+    private volatile EncryptedSession session;
 
-            this.url = new URL(String.format(PanasonicTV2BindingConstants.SOAP_URL, host));
-        } catch (final SOAPException e) {
-            logger.debug("Error creating SoapMessage", e);
+    /**
+     * @param host Host name of the TV
+     * @param port TCP port of the TV
+     * @param connectTimeout Connect timeout in milliseconds
+     * @param readTimeout Read timeout in milliseconds
+     * @param breaker Circuit breaker of the TV
+     * @param recorder Recorder for the traffic to the TV, null if traffic isn't recorded
+     * @param journal Event journal of the TV
+     * @param session Session of the TV if it only accepts encrypted commands, null otherwise
+     */
+    public PanasonicTV2Communication(String host, int port, int connectTimeout, int readTimeout,
+            CircuitBreaker breaker, TrafficRecorder recorder, EventJournal journal, EncryptedSession session) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.breaker = breaker;
+        this.recorder = recorder;
+        this.journal = journal;
+        this.session = session;
+        try {
+            this.url = new URL(String.format(PanasonicTV2BindingConstants.SOAP_URL, host, port));
         } catch (MalformedURLException e) {
             logger.debug("Error creating SOAP URL", e);
         }
     }
 
-    public void sendKey(KeyCode keyCode) {
+    /**
+     * Procedure to change the timeouts, applies to calls made from now on.
+     *
+     * @param connectTimeout Connect timeout in milliseconds
+     * @param readTimeout Read timeout in milliseconds
+     */
+    public void setTimeouts(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Sends a key code to the TV.
+     *
+     * @param keyCode Key code to send
+     * @return Response of the TV
+     * @throws CommunicationException if the call failed or the circuit breaker is open
+     */
+    public SoapResponse sendKey(KeyCode keyCode) {
+        // <u:X_SendKey xmlns:u="urn:panasonic-com:service:p00NetworkControl:1">
+        SoapResponse response = invokeAction("X_SendKey",
+                "<X_KeyEvent>" + escapeXml(keyCode.getValue()) + "</X_KeyEvent>");
+        if (response.isFault()) {
+            logger.debug("Soap Response: {}", response);
+        }
+        return response;
+    }
+
+    /**
+     * Invokes an action of the p00NetworkControl service.
+     *
+     * @param action Name of the action
+     * @param arguments Already escaped XML of the action arguments
+     * @return Response of the TV
+     * @throws CommunicationException if the call failed or the circuit breaker is open
+     */
+    public SoapResponse invokeAction(String action, String arguments) {
+        return invokeAction(action, arguments, null);
+    }
+
+    /**
+     * Invokes an action of the p00NetworkControl service and extracts an output argument of the response.
+     *
+     * @param action Name of the action
+     * @param arguments Already escaped XML of the action arguments
+     * @param outputName Name of the output argument to extract, null if the response body is not needed
+     * @return Response of the TV
+     * @throws CommunicationException if the call failed or the circuit breaker is open
+     */
+    public SoapResponse invokeAction(String action, String arguments, String outputName) {
+        EncryptedSession current = session;
+        if (current != null) {
+            return invokeEncrypted(current, action, arguments, outputName);
+        }
+        return invokePlain(action, arguments, outputName);
+    }
+
+    /*
+     * The session id is reused for every command. A fault on a session that was not just opened may mean the
+     * TV dropped the session, so it is renewed and the command is sent once more.
+     */
+    private SoapResponse invokeEncrypted(EncryptedSession session, String action, String arguments,
+            String outputName) {
+        // Sequence numbers must reach the TV in order
+        synchronized (session) {
+            boolean renewed = false;
+            while (true) {
+                if (!session.isOpen()) {
+                    openSession(session);
+                    renewed = true;
+                }
+
+                String encInfo = session.wrapCommand(action, PanasonicTV2BindingConstants.UPNP_XMLNS, arguments);
+                SoapResponse response = invokePlain("X_EncryptedCommand", "<X_ApplicationId>"
+                        + escapeXml(session.getApplicationId()) + "</X_ApplicationId><X_EncInfo>" + encInfo
+                        + "</X_EncInfo>", "X_EncResult");
+                if (response.isFault()) {
+                    if (!renewed) {
+                        session.invalidate();
+                        journal.record(EventJournal.Type.STATUS, action, "encrypted session renewed");
+                        continue;
+                    }
+                    // Rejected within a fresh session, the action itself failed
+                    return response;
+                }
+
+                String output = null;
+                if (outputName != null && response.getOutput() != null) {
+                    String decrypted = session.decrypt(response.getOutput());
+                    BindingEvents.Event parse = BindingEvents.begin(BindingEvents.Kind.XML_PARSE,
+                            journal.getOwner(), action);
+                    output = SoapResponseHandler.extractElement(decrypted, outputName);
+                    parse.complete(TrafficRecord.Outcome.OK, decrypted.length());
+                }
+                return SoapResponse.success(response.getHttpStatus(), output);
+            }
+        }
+    }
+
+    private void openSession(EncryptedSession session) {
+        SoapResponse response = invokePlain("X_GetEncryptSessionId",
+                "<X_ApplicationId>" + escapeXml(session.getApplicationId()) + "</X_ApplicationId><X_EncInfo>"
+                        + session.encryptSessionRequest() + "</X_EncInfo>",
+                "X_EncResult");
+        if (response.isFault() || response.getOutput() == null) {
+            throw new CommunicationException("Encrypted session rejected by the TV: " + response);
+        }
+
+        String result = session.decrypt(response.getOutput());
+        String sessionId = SoapResponseHandler.extractElement(result, "X_SessionId");
+        String sequenceNumber = SoapResponseHandler.extractElement(result, "X_SeqNum");
+        if (sessionId == null || sequenceNumber == null) {
+            throw new CommunicationException("Encrypted session result incomplete");
+        }
+        try {
+            session.open(sessionId.trim(), Long.parseLong(sequenceNumber.trim()));
+        } catch (NumberFormatException e) {
+            throw new CommunicationException("Encrypted session result malformed", e);
+        }
+    }
+
+    /**
+     * Procedure to start encrypting commands once the TV has been paired.
+     *
+     * @param session Session holding the keys assigned during pairing
+     */
+    public void setSession(EncryptedSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Asks the TV to display a PIN code, the first step of pairing with a TV which only accepts encrypted
+     * commands.
+     *
+     * @param deviceName Name under which the binding is shown on the TV
+     * @return Base64 challenge key needed to complete the pairing
+     * @throws CommunicationException if the call failed or the TV refused to pair
+     */
+    public String requestPinCode(String deviceName) {
+        SoapResponse response = invokePlain("X_DisplayPinCode",
+                "<X_DeviceName>" + escapeXml(deviceName) + "</X_DeviceName>", "X_ChallengeKey");
+        if (response.isFault() || response.getOutput() == null) {
+            throw new CommunicationException("TV refused to display a PIN code: " + response);
+        }
+        return response.getOutput().trim();
+    }
+
+    /**
+     * Completes the pairing with the PIN code displayed by the TV.
+     *
+     * @param challenge Challenge key returned by {@link #requestPinCode(String)}
+     * @param pinCode PIN code displayed by the TV
+     * @return Session holding the application id and encryption key assigned by the TV
+     * @throws CommunicationException if the call failed or the TV rejected the PIN code
+     * @throws IllegalArgumentException if the challenge is malformed
+     */
+    public EncryptedSession authorize(String challenge, String pinCode) {
+        EncryptedSession.Keys keys = EncryptedSession.derivePairingKeys(challenge);
+        SoapResponse response = invokePlain("X_RequestAuth", "<X_AuthInfo>"
+                + EncryptedSession.encrypt("<X_PinCode>" + escapeXml(pinCode) + "</X_PinCode>", keys)
+                + "</X_AuthInfo>", "X_AuthResult");
+        if (response.isFault() || response.getOutput() == null) {
+            throw new CommunicationException("TV rejected the PIN code: " + response);
+        }
+
+        String result = EncryptedSession.decrypt(response.getOutput(), keys);
+        String applicationId = SoapResponseHandler.extractElement(result, "X_ApplicationId");
+        String encryptionKey = SoapResponseHandler.extractElement(result, "X_Keyword");
+        if (applicationId == null || encryptionKey == null) {
+            throw new CommunicationException("Pairing result incomplete");
+        }
         try {
-            SOAPMessage requestAction = messageFactory.createMessage();
-            SOAPBody soapBody = requestAction.getSOAPBody();
-            // <u:X_SendKey xmlns:u="urn:panasonic-com:service:p00NetworkControl:1">
-            QName bodyName = new QName(PanasonicTV2BindingConstants.UPNP_XMLNS, "X_SendKey", "u");
-            SOAPBodyElement bodyElement = soapBody.addBodyElement(bodyName);
-
-            QName keyEventName = new QName("X_KeyEvent");
-            SOAPElement keyCodeElement = bodyElement.addChildElement(keyEventName);
-            keyCodeElement.addTextNode(keyCode.getValue());
-
-            final MimeHeaders headers = requestAction.getMimeHeaders();
-            headers.addHeader("Content-Type", "text/xml; charset=\"utf-8\"");
-            headers.addHeader("SOAPAction", PanasonicTV2BindingConstants.SOAP_SENDKEY);
-
-            requestAction.saveChanges();
-
-            /*
-             * ByteArrayOutputStream out2 = new ByteArrayOutputStream();
-             * requestAction.writeTo(out2);
-             * logger.debug("SOAP Request: " + new String(out2.toByteArray()));
-             */
-
-            SOAPMessage soapResponse = soapConnection.call(requestAction, url);
-            SOAPBody responseBody = soapResponse.getSOAPBody();
-            if (responseBody.hasFault()) {
-                logger.debug("Soap Response: " + responseBody.getFault().getFaultString());
+            return new EncryptedSession(applicationId.trim(), encryptionKey.trim());
+        } catch (IllegalArgumentException e) {
+            throw new CommunicationException("Pairing result malformed", e);
+        }
+    }
+
+    private SoapResponse invokePlain(String action, String arguments, String outputName) {
+        if (!breaker.allowRequest()) {
+            journal.record(EventJournal.Type.ERROR, action, "circuit breaker open");
+            throw new CommunicationException("Circuit breaker open, action '" + action + "' not invoked");
+        }
+
+        byte[] request = String.format(SOAP_ENVELOPE, action, PanasonicTV2BindingConstants.UPNP_XMLNS, arguments)
+                .getBytes(StandardCharsets.UTF_8);
+
+        long start = System.nanoTime();
+        BindingEvents.Event event = BindingEvents.begin(BindingEvents.Kind.SOAP_CALL, journal.getOwner(), action);
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(request.length);
+            connection.setRequestProperty("Content-Type", "text/xml; charset=\"utf-8\"");
+            connection.setRequestProperty("SOAPAction",
+                    String.format(PanasonicTV2BindingConstants.SOAP_ACTION, PanasonicTV2BindingConstants.UPNP_XMLNS,
+                            action));
+
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(request);
+            }
+
+            // Waits for the TV, so the parse event only covers reading and parsing the body
+            connection.getResponseCode();
+            // Read before the body, the handler closes a connection whose body is too long to drain
+            long contentLength = Math.max(0, connection.getContentLengthLong());
+            BindingEvents.Event parse = BindingEvents.begin(BindingEvents.Kind.XML_PARSE, journal.getOwner(),
+                    action);
+            SoapResponse response = SoapResponseHandler.handle(connection, outputName);
+            TrafficRecord.Outcome outcome = response.isFault() ? TrafficRecord.Outcome.FAULT
+                    : TrafficRecord.Outcome.OK;
+            parse.complete(outcome, contentLength);
+
+            breaker.recordSuccess();
+            record(start, action, arguments, response, null);
+            event.complete(outcome, request.length);
+            return response;
+
+        } catch (IOException | RuntimeException e) {
+            breaker.recordFailure();
+            record(start, action, arguments, null, e.toString());
+            event.complete(TrafficRecord.Outcome.ERROR, request.length);
+            if (connection != null) {
+                connection.disconnect();
             }
+            throw new CommunicationException("Error performing the SOAP Call", e);
+        }
+    }
 
-        } catch (SOAPException soape) {
-            logger.error("Error creating SoapActionMessage", soape);
+    private void record(long start, String action, String arguments, SoapResponse response, String error) {
+        long latency = System.nanoTime() - start;
+        if (response != null && !response.isFault()) {
+            journal.record(EventJournal.Type.ACTION, action, latency);
+        } else {
+            journal.record(EventJournal.Type.ERROR, action, response != null ? response : error);
+        }
 
-        } catch (Exception e) {
-            logger.error("Error performing the SOAP Call: ", e);
-        } finally {
+        if (recorder == null) {
+            return;
+        }
 
+        TrafficRecord.Outcome outcome = TrafficRecord.Outcome.ERROR;
+        Map<String, String> outputs = Collections.emptyMap();
+        if (response != null && !response.isFault()) {
+            outcome = TrafficRecord.Outcome.OK;
+            if (response.getOutput() != null) {
+                outputs = Collections.singletonMap("output", response.getOutput());
+            }
+        } else if (response != null) {
+            outcome = TrafficRecord.Outcome.FAULT;
+            outputs = new HashMap<>();
+            outputs.put("faultcode", response.getFaultCode());
+            outputs.put("faultstring", response.getFaultString());
+            outputs.put("errorCode", response.getErrorCode());
+            outputs.put("errorDescription", response.getErrorDescription());
         }
 
+        recorder.record(TrafficRecord.Kind.SOAP_ACTION, start, latency, outcome,
+                "p00NetworkControl", action, Collections.singletonMap("arguments", arguments), outputs, error);
+    }
+
+    /**
+     * Sends a text to the focused input field of the TV.
+     *
+     * @param text Text to send
+     * @return Response of the TV, a fault if the model doesn't support text input
+     * @throws CommunicationException if the call failed or the circuit breaker is open
+     */
+    public SoapResponse sendString(String text) {
+        // <u:X_SendString xmlns:u="urn:panasonic-com:service:p00NetworkControl:1">
+        SoapResponse response = invokeAction("X_SendString", "<X_String>" + escapeXml(text) + "</X_String>");
+        if (response.isFault()) {
+            logger.debug("Soap Response: {}", response);
+        }
+        return response;
+    }
+
+    /**
+     * Escape a text for use as XML element content. Control characters which can't be represented in
+     * XML 1.0 are dropped.
+     *
+     * @param text Text to escape
+     * @return Escaped text
+     */
+    public static String escapeXml(String text) {
+        StringBuilder sb = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String replacement;
+            switch (c) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                case '\'':
+                    replacement = "&apos;";
+                    break;
+                case '\t':
+                case '\n':
+                case '\r':
+                    replacement = null;
+                    break;
+                default:
+                    replacement = c < 0x20 ? "" : null;
+            }
+            if (replacement != null) {
+                if (sb == null) {
+                    sb = new StringBuilder(text.length() + 16);
+                    sb.append(text, 0, i);
+                }
+                sb.append(replacement);
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb == null ? text : sb.toString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal.protocol;
+
+/**
+ * The {@link SoapResponse} is the outcome of a SOAP call to the Panasonic TV. Fault details are only
+ * present when the TV answered with a fault.
+ *
+ * @author Charky - Initial contribution
+ */
+public class SoapResponse {
+
+    private final int httpStatus;
+    private final boolean fault;
+    private final String faultCode;
+    private final String faultString;
+    private final String errorCode;
+    private final String errorDescription;
+    private final String output;
+
+    private SoapResponse(int httpStatus, boolean fault, String faultCode, String faultString, String errorCode,
+            String errorDescription, String output) {
+        this.httpStatus = httpStatus;
+        this.fault = fault;
+        this.faultCode = faultCode;
+        this.faultString = faultString;
+        this.errorCode = errorCode;
+        this.errorDescription = errorDescription;
+        this.output = output;
+    }
+
+    public static SoapResponse success(int httpStatus) {
+        return new SoapResponse(httpStatus, false, null, null, null, null, null);
+    }
+
+    public static SoapResponse success(int httpStatus, String output) {
+        return new SoapResponse(httpStatus, false, null, null, null, null, output);
+    }
+
+    public static SoapResponse fault(int httpStatus, String faultCode, String faultString, String errorCode,
+            String errorDescription) {
+        return new SoapResponse(httpStatus, true, faultCode, faultString, errorCode, errorDescription, null);
+    }
+
+    /**
+     * @return Text of the requested output argument, null if not requested or not present
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    public int getHttpStatus() {
+        return httpStatus;
+    }
+
+    public boolean isFault() {
+        return fault;
+    }
+
+    public String getFaultCode() {
+        return faultCode;
+    }
+
+    public String getFaultString() {
+        return faultString;
+    }
+
+    /**
+     * @return UPnP error code from the fault detail, or null if not present
+     */
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * @return UPnP error description from the fault detail, or null if not present
+     */
+    public String getErrorDescription() {
+        return errorDescription;
+    }
+
+    @Override
+    public String toString() {
+        if (!fault) {
+            return "HTTP " + httpStatus + " OK";
+        }
+        return "HTTP " + httpStatus + " fault " + faultCode + " '" + faultString + "' (UPnP error " + errorCode
+                + " '" + errorDescription + "')";
+    }
+}
@@ -0,0 +1,317 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The {@link SoapResponseHandler} evaluates SOAP responses of the Panasonic TV without building a DOM.
+ * Success is decided from the HTTP status and the first element of the SOAP body, which is a Fault element
+ * for a failed call. A streaming parser reads up to that element, fault details are only parsed when a fault
+ * is present. Successful bodies are drained and discarded, unless the caller asks for an output argument. Bodies
+ * are only read up to a limit, a TV sending more can't keep the caller reading, and a connection whose body is
+ * too long to drain is closed instead of reused.
+ *
+ * @author Charky - Initial contribution
+ */
+public class SoapResponseHandler {
+
+    /** Number of bytes skipped at once when draining a response */
+    private static final int DRAIN_CHUNK = 4096;
+
+    /** Number of bytes parsed when extracting fault details */
+    private static final int MAX_FAULT_BYTES = 16384;
+
+    /** Number of bytes parsed of a successful response, enough for the app list of a TV full of apps */
+    private static final int MAX_RESPONSE_BYTES = 1048576;
+
+    /** Number of bytes drained at most to reuse a connection */
+    private static final int MAX_DRAIN_BYTES = 65536;
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        return factory;
+    }
+
+    /**
+     * Evaluate the response of a SOAP call.
+     *
+     * @param connection Connection the request was sent on
+     * @return Outcome of the call
+     * @throws IOException if the response could not be read
+     */
+    public static SoapResponse handle(HttpURLConnection connection) throws IOException {
+        return handle(connection, null);
+    }
+
+    /**
+     * Evaluate the response of a SOAP call and extract an output argument.
+     *
+     * @param connection Connection the request was sent on
+     * @param outputName Name of the output argument to extract, null if the body is not needed
+     * @return Outcome of the call
+     * @throws IOException if the response could not be read
+     */
+    public static SoapResponse handle(HttpURLConnection connection, String outputName) throws IOException {
+        int status = connection.getResponseCode();
+
+        if (status >= 200 && status < 300) {
+            InputStream in = connection.getInputStream();
+            try {
+                return parseResponse(status, new LimitedInputStream(in, MAX_RESPONSE_BYTES), outputName);
+            } finally {
+                release(connection, in);
+            }
+        }
+
+        InputStream errorStream = connection.getErrorStream();
+        if (errorStream == null) {
+            return SoapResponse.fault(status, null, connection.getResponseMessage(), null, null);
+        }
+        try {
+            return parseFault(status, errorStream);
+        } finally {
+            release(connection, errorStream);
+        }
+    }
+
+    /*
+     * Only the first child of the SOAP body is checked for being the Fault element of the envelope namespace, so
+     * output arguments mentioning "Fault", e.g. the name of an app, can't be taken for a fault. A body which
+     * isn't needed is not parsed any further, and a malformed one doesn't fail a call the status calls successful.
+     */
+    private static SoapResponse parseResponse(int status, InputStream in, String outputName) throws IOException {
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            String envelopeNamespace = null;
+            boolean inBody = false;
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                if (envelopeNamespace == null) {
+                    envelopeNamespace = Objects.toString(reader.getNamespaceURI(), "");
+                } else if (!inBody) {
+                    inBody = isEnvelopeElement(reader, envelopeNamespace, "Body");
+                } else if (isEnvelopeElement(reader, envelopeNamespace, "Fault")) {
+                    return readFault(status, reader);
+                } else if (outputName == null) {
+                    return SoapResponse.success(status);
+                } else {
+                    return SoapResponse.success(status, readOutput(reader, outputName));
+                }
+            }
+            return SoapResponse.success(status);
+        } catch (XMLStreamException e) {
+            if (outputName != null) {
+                throw new IOException("Malformed SOAP response", e);
+            }
+            return SoapResponse.success(status);
+        } finally {
+            close(reader);
+        }
+    }
+
+    private static boolean isEnvelopeElement(XMLStreamReader reader, String envelopeNamespace, String name) {
+        return name.equals(reader.getLocalName())
+                && envelopeNamespace.equals(Objects.toString(reader.getNamespaceURI(), ""));
+    }
+
+    private static SoapResponse parseFault(int status, InputStream in) throws IOException {
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(new LimitedInputStream(in, MAX_FAULT_BYTES));
+            return readFault(status, reader);
+        } catch (XMLStreamException e) {
+            return SoapResponse.fault(status, null, null, null, null);
+        } finally {
+            close(reader);
+        }
+    }
+
+    private static SoapResponse readFault(int status, XMLStreamReader reader) {
+        String faultCode = null;
+        String faultString = null;
+        String errorCode = null;
+        String errorDescription = null;
+
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "faultcode":
+                            faultCode = reader.getElementText().trim();
+                            break;
+                        case "faultstring":
+                            faultString = reader.getElementText().trim();
+                            break;
+                        case "errorCode":
+                            errorCode = reader.getElementText().trim();
+                            break;
+                        case "errorDescription":
+                            errorDescription = reader.getElementText().trim();
+                            break;
+                    }
+                    if (faultCode != null && faultString != null && errorCode != null && errorDescription != null) {
+                        break;
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            // Truncated or malformed fault, keep what has been extracted so far
+        }
+
+        return SoapResponse.fault(status, faultCode, faultString, errorCode, errorDescription);
+    }
+
+    /*
+     * The reader is positioned on an element, which may be the output argument itself.
+     */
+    private static String readOutput(XMLStreamReader reader, String outputName) throws XMLStreamException {
+        if (outputName.equals(reader.getLocalName())) {
+            return reader.getElementText();
+        }
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT && outputName.equals(reader.getLocalName())) {
+                return reader.getElementText();
+            }
+        }
+        return null;
+    }
+
+    private static String parseOutput(InputStream in, String outputName) throws IOException {
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && outputName.equals(reader.getLocalName())) {
+                    return reader.getElementText();
+                }
+            }
+            return null;
+        } catch (XMLStreamException e) {
+            throw new IOException("Malformed SOAP response", e);
+        } finally {
+            close(reader);
+        }
+    }
+
+    private static void close(XMLStreamReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Extract the text of an element from an XML fragment, e.g. a decrypted result of an encrypted command.
+     *
+     * @param xml XML fragment, several top level elements are allowed
+     * @param name Local name of the element
+     * @return Text of the first element with that name, null if not present
+     * @throws CommunicationException if the fragment is malformed
+     */
+    public static String extractElement(String xml, String name) {
+        try {
+            // Wrapped, since the fragment may not have a single root element
+            return parseOutput(new ByteArrayInputStream(
+                    ("<r>" + xml + "</r>").getBytes(StandardCharsets.UTF_8)), name);
+        } catch (IOException e) {
+            throw new CommunicationException("Malformed XML fragment", e);
+        }
+    }
+
+    /*
+     * Reading the body to its end allows the connection to be reused. A body too long to drain, or one which
+     * can't be read, leaves the connection in an unknown state, so it is closed.
+     */
+    private static void release(HttpURLConnection connection, InputStream in) {
+        try {
+            if (drain(in)) {
+                in.close();
+                return;
+            }
+        } catch (IOException e) {
+            // closed below
+        }
+        connection.disconnect();
+    }
+
+    private static boolean drain(InputStream in) throws IOException {
+        long drained = 0;
+        while (drained <= MAX_DRAIN_BYTES) {
+            long skipped = in.skip(DRAIN_CHUNK);
+            if (skipped > 0) {
+                drained += skipped;
+            } else if (in.read() < 0) {
+                return true;
+            } else {
+                drained++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Input stream which ends after a fixed number of bytes.
+     */
+    private static class LimitedInputStream extends InputStream {
+
+        private final InputStream in;
+        private int remaining;
+
+        LimitedInputStream(InputStream in, int limit) {
+            this.in = in;
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(b, off, Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+}
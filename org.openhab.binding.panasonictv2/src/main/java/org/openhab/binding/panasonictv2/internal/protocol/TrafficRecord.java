@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal.protocol;
+
+import java.util.Map;
+
+/**
+ * The {@link TrafficRecord} is a single call to the Panasonic TV as written by the {@link TrafficRecorder}.
+ *
+ * @author Charky - Initial contribution
+ */
+public class TrafficRecord {
+
+    public enum Kind {
+        UPNP_ACTION,
+        SOAP_ACTION
+    }
+
+    public enum Outcome {
+        OK,
+        FAULT,
+        ERROR
+    }
+
+    private final Kind kind;
+    private final long offsetNanos;
+    private final long latencyNanos;
+    private final Outcome outcome;
+    private final String serviceId;
+    private final String actionId;
+    private final Map<String, String> inputs;
+    private final Map<String, String> outputs;
+    private final String error;
+
+    public TrafficRecord(Kind kind, long offsetNanos, long latencyNanos, Outcome outcome, String serviceId,
+            String actionId, Map<String, String> inputs, Map<String, String> outputs, String error) {
+        this.kind = kind;
+        this.offsetNanos = offsetNanos;
+        this.latencyNanos = latencyNanos;
+        this.outcome = outcome;
+        this.serviceId = serviceId;
+        this.actionId = actionId;
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.error = error;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return Start of the call in nanoseconds, relative to the start of the recording
+     */
+    public long getOffsetNanos() {
+        return offsetNanos;
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public String getServiceId() {
+        return serviceId;
+    }
+
+    public String getActionId() {
+        return actionId;
+    }
+
+    public Map<String, String> getInputs() {
+        return inputs;
+    }
+
+    public Map<String, String> getOutputs() {
+        return outputs;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link TrafficRecorder} writes every call to a Panasonic TV, with its request, response and latency,
+ * to a compact binary log. The log can be read back with {@link #read(File)} and replayed for offline
+ * benchmarking.
+ *
+ * Format: a header (magic, version, wall clock start in milliseconds) followed by one entry per call
+ * (kind, start offset and latency in nanoseconds, outcome, service, action, inputs, outputs, error).
+ * Strings are written as length prefixed UTF-8, maps as entry count followed by key/value strings.
+ *
+ * @author Charky - Initial contribution
+ */
+public class TrafficRecorder implements Closeable {
+
+    private static final int MAGIC = 0x50545632; // "PTV2"
+    private static final short VERSION = 1;
+
+    private final Logger logger = LoggerFactory.getLogger(TrafficRecorder.class);
+
+    private final DataOutputStream out;
+    private final long startNanos;
+
+    /**
+     * Create a recorder writing to a new file, replacing an existing one.
+     *
+     * @param file Log file
+     * @throws IOException if the file can't be created
+     */
+    public TrafficRecorder(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+        startNanos = System.nanoTime();
+
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(System.currentTimeMillis());
+    }
+
+    /**
+     * Record a call. Failures to write are logged and otherwise ignored, recording never breaks a call.
+     *
+     * @param callStartNanos {@link System#nanoTime()} when the call started
+     * @param latencyNanos Duration of the call
+     */
+    public void record(TrafficRecord.Kind kind, long callStartNanos, long latencyNanos, TrafficRecord.Outcome outcome,
+            String serviceId, String actionId, Map<String, String> inputs, Map<String, String> outputs,
+            String error) {
+        synchronized (out) {
+            try {
+                out.writeByte(kind.ordinal());
+                out.writeLong(callStartNanos - startNanos);
+                out.writeLong(latencyNanos);
+                out.writeByte(outcome.ordinal());
+                writeString(serviceId);
+                writeString(actionId);
+                writeMap(inputs);
+                writeMap(outputs);
+                writeString(error);
+            } catch (IOException e) {
+                logger.debug("Unable to record traffic: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Procedure to write the buffered records to the log file, called periodically while traffic is recorded.
+     */
+    public void flush() {
+        synchronized (out) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                logger.debug("Unable to flush traffic log: {}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (out) {
+            out.close();
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private void writeMap(Map<String, String> map) throws IOException {
+        if (map == null) {
+            out.writeShort(0);
+            return;
+        }
+        out.writeShort(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            writeString(entry.getKey());
+            writeString(entry.getValue());
+        }
+    }
+
+    /**
+     * Read all records of a traffic log. A truncated last record, e.g. from a crash, is skipped.
+     *
+     * @param file Log file
+     * @return Records in recording order
+     * @throws IOException if the file can't be read or is not a traffic log
+     */
+    public static List<TrafficRecord> read(File file) throws IOException {
+        List<TrafficRecord> records = new ArrayList<>();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                throw new IOException("Not a Panasonic TV traffic log: " + file);
+            }
+            in.readLong(); // wall clock start
+
+            while (true) {
+                int kind = in.read();
+                if (kind < 0) {
+                    break;
+                }
+                try {
+                    long offset = in.readLong();
+                    long latency = in.readLong();
+                    int outcome = in.readUnsignedByte();
+                    String serviceId = readString(in);
+                    String actionId = readString(in);
+                    Map<String, String> inputs = readMap(in);
+                    Map<String, String> outputs = readMap(in);
+                    String error = readString(in);
+
+                    records.add(new TrafficRecord(TrafficRecord.Kind.values()[kind], offset, latency,
+                            TrafficRecord.Outcome.values()[outcome], serviceId, actionId, inputs, outputs, error));
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+        }
+
+        return records;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> readMap(DataInputStream in) throws IOException {
+        int size = in.readUnsignedShort();
+        if (size == 0) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> map = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            map.put(readString(in), readString(in));
+        }
+        return map;
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal.service;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.binding.panasonictv2.internal.ThingDataStore;
+
+/**
+ * The {@link AppCatalog} maps the names of the apps installed on a Panasonic TV to their product ids. The
+ * catalog is fetched with X_GetAppList, persisted per TV and refreshed when it gets old, so launching an app
+ * by name is a single X_LaunchApp call.
+ *
+ * @author Charky - Initial contribution
+ */
+public class AppCatalog {
+
+    private static final String STORE_KEY = "appList";
+
+    /** Age after which the catalog is fetched again */
+    private static final long TTL = TimeUnit.DAYS.toMillis(1);
+
+    /** Minimum age before an unknown app name causes the catalog to be fetched again */
+    private static final long MIN_REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private static final String APP_MARKER = "vc_app";
+    private static final String PRODUCT_ID = "product_id=";
+
+    private final ThingDataStore store;
+
+    /** Product ids by lower case app name */
+    private final Map<String, String> productIds = new TreeMap<>();
+    private long fetched = 0;
+
+    public AppCatalog(ThingDataStore store) {
+        this.store = store;
+        decode(store.get(STORE_KEY));
+    }
+
+    /**
+     * Procedure to check whether the catalog should be fetched before looking up an app.
+     *
+     * @param name Name of the app about to be launched
+     * @return true if the catalog expired, or if it doesn't know the app and wasn't fetched a moment ago
+     */
+    public synchronized boolean needsRefresh(String name) {
+        long age = System.currentTimeMillis() - fetched;
+        return age >= TTL || (lookup(name) == null && age >= MIN_REFRESH_INTERVAL);
+    }
+
+    /**
+     * Procedure to get the product id of an app.
+     *
+     * @param name Name of the app, case insensitive, or its product id
+     * @return Product id or null if the app is unknown
+     */
+    public synchronized String getProductId(String name) {
+        return lookup(name);
+    }
+
+    /*
+     * A product id of a cataloged app is known just like its name.
+     */
+    private String lookup(String name) {
+        String productId = productIds.get(name.toLowerCase());
+        if (productId == null && productIds.containsValue(name)) {
+            return name;
+        }
+        return productId;
+    }
+
+    /**
+     * Procedure to replace the catalog with a fetched app list. The catalog is persisted.
+     *
+     * @param appList Value of the X_AppList output argument of X_GetAppList
+     */
+    public synchronized void update(String appList) {
+        productIds.clear();
+        parse(appList);
+        fetched = System.currentTimeMillis();
+        store.put(STORE_KEY, encode());
+    }
+
+    /*
+     * Every app starts with the marker and carries its product id twice, the second time followed by its
+     * name: vc_app'product_id=0387878700000014'0387878700000014'Netflix'...
+     */
+    private void parse(String appList) {
+        if (appList == null) {
+            return;
+        }
+
+        int app = appList.indexOf(APP_MARKER);
+        while (app >= 0) {
+            int next = appList.indexOf(APP_MARKER, app + APP_MARKER.length());
+            int end = next >= 0 ? next : appList.length();
+
+            int idStart = appList.indexOf(PRODUCT_ID, app);
+            if (idStart >= 0 && idStart < end) {
+                idStart += PRODUCT_ID.length();
+                int idEnd = appList.indexOf('\'', idStart);
+                if (idEnd > idStart && idEnd < end) {
+                    String productId = appList.substring(idStart, idEnd);
+                    String prefix = '\'' + productId + '\'';
+                    int nameStart = appList.indexOf(prefix, idEnd);
+                    if (nameStart >= 0 && nameStart < end) {
+                        nameStart += prefix.length();
+                        int nameEnd = appList.indexOf('\'', nameStart);
+                        if (nameEnd > nameStart && nameEnd <= end) {
+                            productIds.put(appList.substring(nameStart, nameEnd).toLowerCase(), productId);
+                        }
+                    }
+                }
+            }
+            app = next;
+        }
+    }
+
+    private String encode() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(fetched).append('\n');
+        for (Map.Entry<String, String> entry : productIds.entrySet()) {
+            sb.append(entry.getValue()).append('=').append(entry.getKey()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private void decode(String encoded) {
+        if (encoded == null) {
+            return;
+        }
+        String[] lines = encoded.split("\n");
+        try {
+            fetched = Long.parseLong(lines[0]);
+        } catch (NumberFormatException e) {
+            // corrupt catalog, fetch again
+            return;
+        }
+        for (int i = 1; i < lines.length; i++) {
+            int separator = lines[i].indexOf('=');
+            if (separator > 0) {
+                productIds.put(lines[i].substring(separator + 1), lines[i].substring(0, separator));
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.binding.panasonictv2.internal.ThingDataStore;
+
+/**
+ * The {@link CapabilityCache} remembers the actions a Panasonic TV doesn't implement, so they are not invoked
+ * on every poll. An action is considered unsupported after it failed several times in a row without any
+ * success, or right away if the TV says so. The knowledge is persisted per TV and re-checked once a day with a
+ * single probe, in case a firmware update added the action.
+ *
+ * @author Charky - Initial contribution
+ */
+public class CapabilityCache {
+
+    private static final String STORE_KEY = "unsupportedActions";
+
+    /** Consecutive failures after which an action is considered unsupported */
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long RECHECK_INTERVAL = TimeUnit.DAYS.toMillis(1);
+
+    private final ThingDataStore store;
+
+    /** Time in milliseconds an unsupported action was last checked, by service#action */
+    private final Map<String, Long> unsupported = new HashMap<>();
+    private final Map<String, Integer> failures = new HashMap<>();
+
+    public CapabilityCache(ThingDataStore store) {
+        this.store = store;
+        decode(store.get(STORE_KEY));
+    }
+
+    /**
+     * Procedure to check whether an action should be invoked. Once per re-check interval an unsupported action
+     * is let through as a probe.
+     *
+     * @param serviceId Id of the UPnP service
+     * @param actionId Id of the action
+     * @return false if the TV is known not to implement the action
+     */
+    public synchronized boolean isSupported(String serviceId, String actionId) {
+        String key = key(serviceId, actionId);
+        Long checked = unsupported.get(key);
+        if (checked == null) {
+            return true;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - checked < RECHECK_INTERVAL) {
+            return false;
+        }
+        unsupported.put(key, now);
+        return true;
+    }
+
+    /**
+     * Procedure to report a successful invocation, an action marked unsupported is supported again.
+     *
+     * @param serviceId Id of the UPnP service
+     * @param actionId Id of the action
+     */
+    public synchronized void actionSucceeded(String serviceId, String actionId) {
+        String key = key(serviceId, actionId);
+        failures.remove(key);
+        if (unsupported.remove(key) != null) {
+            persist();
+        }
+    }
+
+    /**
+     * Procedure to report an invocation the TV didn't answer properly. Communication errors like timeouts must
+     * not be reported, they don't say anything about the capabilities of the TV.
+     *
+     * @param serviceId Id of the UPnP service
+     * @param actionId Id of the action
+     */
+    public synchronized void actionFailed(String serviceId, String actionId) {
+        String key = key(serviceId, actionId);
+        if (unsupported.containsKey(key)) {
+            return;
+        }
+        Integer count = failures.get(key);
+        count = count == null ? 1 : count + 1;
+        if (count < FAILURE_THRESHOLD) {
+            failures.put(key, count);
+            return;
+        }
+        markUnsupported(serviceId, actionId);
+    }
+
+    /**
+     * Procedure to mark an action unsupported right away, e.g. after the TV answered with "Invalid Action".
+     *
+     * @param serviceId Id of the UPnP service
+     * @param actionId Id of the action
+     */
+    public synchronized void markUnsupported(String serviceId, String actionId) {
+        String key = key(serviceId, actionId);
+        failures.remove(key);
+        unsupported.put(key, System.currentTimeMillis());
+        persist();
+    }
+
+    private static String key(String serviceId, String actionId) {
+        return serviceId + '#' + actionId;
+    }
+
+    /*
+     * Called with the lock held, so concurrent changes are persisted in the order they were made and an older
+     * snapshot can't overwrite a newer one.
+     */
+    private void persist() {
+        store.put(STORE_KEY, encode());
+    }
+
+    private String encode() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> entry : unsupported.entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private void decode(String encoded) {
+        if (encoded == null) {
+            return;
+        }
+        for (String line : encoded.split("\n")) {
+            int separator = line.indexOf('=');
+            if (separator > 0) {
+                try {
+                    unsupported.put(line.substring(0, separator), Long.parseLong(line.substring(separator + 1)));
+                } catch (NumberFormatException e) {
+                    // skip corrupt entry
+                }
+            }
+        }
+    }
+}
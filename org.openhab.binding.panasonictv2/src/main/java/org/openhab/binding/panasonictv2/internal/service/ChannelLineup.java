@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal.service;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.openhab.binding.panasonictv2.internal.ThingDataStore;
+
+/**
+ * The {@link ChannelLineup} maps TV channel numbers to channel names. The map is learned from the media
+ * metadata reported by the TV and persisted per TV, so the channel name is known as soon as a channel is
+ * selected.
+ *
+ * @author Charky - Initial contribution
+ */
+public class ChannelLineup {
+
+    private static final String STORE_KEY = "channelLineup";
+
+    private final ThingDataStore store;
+    private final Map<Integer, String> names = new TreeMap<>();
+
+    public ChannelLineup(ThingDataStore store) {
+        this.store = store;
+        decode(store.get(STORE_KEY));
+    }
+
+    /**
+     * Procedure to get the learned name of a channel.
+     *
+     * @param channelNumber Number of the channel
+     * @return Name of the channel or null if not learned yet
+     */
+    public synchronized String getName(int channelNumber) {
+        return names.get(channelNumber);
+    }
+
+    /**
+     * Procedure to learn the name of a channel. The lineup is persisted when it changed.
+     *
+     * @param channelNumber Channel number as reported by the TV
+     * @param channelName Channel name as reported by the TV
+     */
+    public void learn(String channelNumber, String channelName) {
+        if (channelNumber == null || channelName == null || channelName.isEmpty()) {
+            return;
+        }
+
+        int number;
+        try {
+            number = Integer.parseInt(channelNumber.trim());
+        } catch (NumberFormatException e) {
+            return;
+        }
+
+        synchronized (this) {
+            if (channelName.equals(names.get(number))) {
+                return;
+            }
+            names.put(number, channelName);
+            // Persisted with the lock held, otherwise an older lineup could be written last
+            store.put(STORE_KEY, encode());
+        }
+    }
+
+    private String encode() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Integer, String> entry : names.entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue().replace('\n', ' ')).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private void decode(String encoded) {
+        if (encoded == null) {
+            return;
+        }
+        for (String line : encoded.split("\n")) {
+            int separator = line.indexOf('=');
+            if (separator > 0) {
+                try {
+                    names.put(Integer.parseInt(line.substring(0, separator)), line.substring(separator + 1));
+                } catch (NumberFormatException e) {
+                    // skip corrupt entry
+                }
+            }
+        }
+    }
+}
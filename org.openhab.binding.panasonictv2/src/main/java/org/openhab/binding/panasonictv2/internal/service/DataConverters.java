@@ -15,6 +15,7 @@ import org.eclipse.smarthome.core.library.types.OpenClosedType;
 import org.eclipse.smarthome.core.library.types.PercentType;
 import org.eclipse.smarthome.core.library.types.UpDownType;
 import org.eclipse.smarthome.core.types.Command;
+import org.eclipse.smarthome.core.types.State;
 
 /**
  * The {@link DataConverters} provides utils for converting openHAB commands to
@@ -24,6 +25,44 @@ import org.eclipse.smarthome.core.types.Command;
  */
 public class DataConverters {
 
+    /** Pre-built states for the whole 0-100 percent range, indexed by value */
+    private static final PercentType[] PERCENT_STATES = new PercentType[101];
+
+    static {
+        for (int i = 0; i < PERCENT_STATES.length; i++) {
+            PERCENT_STATES[i] = new PercentType(i);
+        }
+    }
+
+    /**
+     * Convert a percent value received from the TV to a state. Values within 0-100 are taken from a
+     * pre-built table, so no state is allocated.
+     *
+     * @param value Integer value as string
+     * @return Percent state
+     */
+    public static State convertToPercentState(String value) {
+        try {
+            int intValue = Integer.parseInt(value);
+            if (intValue >= 0 && intValue < PERCENT_STATES.length) {
+                return PERCENT_STATES[intValue];
+            }
+        } catch (NumberFormatException e) {
+            // not a plain integer, let PercentType parse it
+        }
+        return new PercentType(value);
+    }
+
+    /**
+     * Convert a boolean value received from the TV to a state.
+     *
+     * @param value "true", "1" or any other value for false
+     * @return Shared on/off state
+     */
+    public static State convertToOnOffState(String value) {
+        return ("true".equals(value) || "1".equals(value)) ? OnOffType.ON : OnOffType.OFF;
+    }
+
     /**
      * Convert openHAB command to int.
      *
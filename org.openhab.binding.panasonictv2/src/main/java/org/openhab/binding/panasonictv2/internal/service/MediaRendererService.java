@@ -8,27 +8,40 @@
  */
 package org.openhab.binding.panasonictv2.internal.service;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.smarthome.core.library.types.DecimalType;
-import org.eclipse.smarthome.core.library.types.OnOffType;
-import org.eclipse.smarthome.core.library.types.PercentType;
+import org.eclipse.smarthome.core.library.types.IncreaseDecreaseType;
 import org.eclipse.smarthome.core.library.types.StringType;
 import org.eclipse.smarthome.core.types.Command;
+import org.eclipse.smarthome.core.types.RefreshType;
 import org.eclipse.smarthome.core.types.State;
 import org.eclipse.smarthome.core.types.UnDefType;
 import org.eclipse.smarthome.io.transport.upnp.UpnpIOParticipant;
 import org.eclipse.smarthome.io.transport.upnp.UpnpIOService;
 import org.openhab.binding.panasonictv2.PanasonicTV2BindingConstants;
+import org.openhab.binding.panasonictv2.config.PanasonicTV2Configuration;
+import org.openhab.binding.panasonictv2.internal.EventJournal;
+import org.openhab.binding.panasonictv2.internal.MediaServer;
+import org.openhab.binding.panasonictv2.internal.jfr.BindingEvents;
+import org.openhab.binding.panasonictv2.internal.protocol.ActionFaultException;
+import org.openhab.binding.panasonictv2.internal.protocol.PanasonicTV2Communication;
+import org.openhab.binding.panasonictv2.internal.protocol.TrafficRecord;
 import org.openhab.binding.panasonictv2.internal.service.api.PanasonicTV2Service;
 import org.openhab.binding.panasonictv2.internal.service.api.ValueReceiver;
 import org.slf4j.Logger;
@@ -46,37 +59,78 @@ import org.w3c.dom.Node;
 public class MediaRendererService implements UpnpIOParticipant, PanasonicTV2Service {
 
     public static final String SERVICE_NAME = "MediaRenderer";
+
+    /** Delay in seconds before the media info is fetched after a channel change, giving the TV time to tune */
+    private static final int MEDIA_INFO_REFRESH_DELAY = 3;
     private final List<String> supportedCommands = Arrays.asList(PanasonicTV2BindingConstants.CHANNEL_VOLUME,
             PanasonicTV2BindingConstants.CHANNEL_MUTE, PanasonicTV2BindingConstants.CHANNEL_CHANNEL,
-            PanasonicTV2BindingConstants.CHANNEL_CHANNEL_NAME, PanasonicTV2BindingConstants.CHANNEL_PROGRAM_TITLE);
+            PanasonicTV2BindingConstants.CHANNEL_CHANNEL_NAME, PanasonicTV2BindingConstants.CHANNEL_PROGRAM_TITLE,
+            PanasonicTV2BindingConstants.CHANNEL_CAST);
+
+    private static final String DIDL_LITE = "<DIDL-Lite xmlns=\"urn:schemas-upnp-org:metadata-1-0/DIDL-Lite/\""
+            + " xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:upnp=\"urn:schemas-upnp-org:metadata-1-0/upnp/\">"
+            + "<item id=\"0\" parentID=\"-1\" restricted=\"1\"><dc:title>%s</dc:title><upnp:class>%s</upnp:class>"
+            + "<res protocolInfo=\"http-get:*:%s:*\">%s</res></item></DIDL-Lite>";
 
     private Logger logger = LoggerFactory.getLogger(MediaRendererService.class);
 
     private UpnpIOService service;
+    private UpnpActionInvoker invoker;
 
     private ScheduledExecutorService scheduler;
-    private ScheduledFuture<?> pollingJob;
+    private volatile ScheduledFuture<?> pollingJob;
+    private volatile ScheduledFuture<?> mediaInfoJob;
 
     private String udn;
     private int pollingInterval;
 
+    private ChannelLineup lineup;
+
+    /** Channels linked to an item, actions feeding none of them are not polled */
+    private Set<String> linkedChannels;
+
+    private EventJournal journal;
+
+    /** Actions the TV doesn't implement are not polled */
+    private CapabilityCache capabilities;
+
+    /** Serves local media, null if only URLs can be cast */
+    private MediaServer mediaServer;
+    private String hostName;
+
+    /** URL of the local media being cast, unpublished when something else is cast */
+    private String castUrl;
+
     private Map<String, String> stateMap = Collections.synchronizedMap(new HashMap<String, String>());
 
-    private List<ValueReceiver> listeners = new ArrayList<ValueReceiver>();
+    /** Fetches in flight by action, polls and refreshes of the same action wait for a single fetch */
+    private final ConcurrentMap<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+    /** Time in nanoseconds of the last successful fetch by action */
+    private final Map<String, Long> fetched = new ConcurrentHashMap<>();
 
-    public MediaRendererService(UpnpIOService upnpIOService, String udn, int pollingInterval) {
+    /** Read by every state update from the poll threads, changed only when the service is started or stopped */
+    private List<ValueReceiver> listeners = new CopyOnWriteArrayList<ValueReceiver>();
+
+    public MediaRendererService(ServiceContext context, String udn) {
         logger.debug("Create a Panasonic TV MediaRenderer service");
 
-        if (upnpIOService != null) {
-            service = upnpIOService;
+        if (context.getUpnpIOService() != null) {
+            service = context.getUpnpIOService();
         } else {
             logger.debug("upnpIOService not set.");
         }
 
+        this.invoker = context.getInvoker();
         this.udn = udn;
-        this.pollingInterval = pollingInterval;
-
-        scheduler = Executors.newScheduledThreadPool(1);
+        this.pollingInterval = context.getConfiguration().refreshInterval;
+        this.scheduler = context.getScheduler();
+        this.lineup = context.getLineup();
+        this.linkedChannels = context.getLinkedChannels();
+        this.journal = context.getJournal();
+        this.capabilities = context.getCapabilities();
+        this.mediaServer = context.getMediaServer();
+        this.hostName = context.getConfiguration().hostName;
     }
 
     @Override
@@ -100,24 +154,55 @@ public class MediaRendererService implements UpnpIOParticipant, PanasonicTV2Serv
     }
 
     @Override
-    public void start() {
+    public synchronized void start() {
         if (pollingJob == null || pollingJob.isCancelled()) {
             logger.debug("Start refresh task, interval={}", pollingInterval);
-            pollingJob = scheduler.scheduleAtFixedRate(pollingRunnable, 0, pollingInterval, TimeUnit.MILLISECONDS);
+            pollingJob = scheduler.scheduleWithFixedDelay(pollingRunnable, 0, pollingInterval, TimeUnit.SECONDS);
         }
     }
 
+    /*
+     * A poll which is already running is not interrupted: the scheduler threads are shared, and the
+     * poll can only publish to listeners which are removed right after stopping.
+     */
     @Override
-    public void stop() {
+    public synchronized void stop() {
         if (pollingJob != null && !pollingJob.isCancelled()) {
-            pollingJob.cancel(true);
+            pollingJob.cancel(false);
             pollingJob = null;
         }
+        if (mediaInfoJob != null && !mediaInfoJob.isCancelled()) {
+            mediaInfoJob.cancel(false);
+            mediaInfoJob = null;
+        }
+        if (castUrl != null) {
+            mediaServer.unpublish(castUrl);
+            castUrl = null;
+        }
     }
 
     @Override
     public void clearCache() {
         stateMap.clear();
+        fetched.clear();
+    }
+
+    /*
+     * A running poll is rescheduled with the new interval. The next poll waits a full interval, so a bulk change
+     * across many TVs doesn't make all of them poll at once.
+     */
+    @Override
+    public synchronized void applyConfiguration(PanasonicTV2Configuration configuration) {
+        if (configuration.refreshInterval == pollingInterval) {
+            return;
+        }
+        pollingInterval = configuration.refreshInterval;
+        if (pollingJob != null && !pollingJob.isCancelled()) {
+            logger.debug("Reschedule refresh task, interval={}", pollingInterval);
+            pollingJob.cancel(false);
+            pollingJob = scheduler.scheduleWithFixedDelay(pollingRunnable, pollingInterval, pollingInterval,
+                    TimeUnit.SECONDS);
+        }
     }
 
     private Runnable pollingRunnable = new Runnable() {
@@ -125,24 +210,37 @@ public class MediaRendererService implements UpnpIOParticipant, PanasonicTV2Serv
         @Override
         public void run() {
             if (isRegistered()) {
-
+                BindingEvents.Event event = BindingEvents.begin(BindingEvents.Kind.POLL, journal.getOwner(),
+                        SERVICE_NAME);
+                TrafficRecord.Outcome outcome = TrafficRecord.Outcome.OK;
                 try {
-                    updateResourceState("RenderingControl", "GetVolume",
-                            PanasonicTVUtils.buildHashMap("InstanceID", "0", "Channel", "Master"));
-                    updateResourceState("RenderingControl", "GetMute",
-                            PanasonicTVUtils.buildHashMap("InstanceID", "0", "Channel", "Master"));
-                    updateResourceState("AVTransport", "GetMediaInfo",
-                            PanasonicTVUtils.buildHashMap("InstanceID", "0"));
+                    if (isLinked(PanasonicTV2BindingConstants.CHANNEL_VOLUME)) {
+                        pollResourceState("RenderingControl", "GetVolume",
+                                PanasonicTVUtils.buildHashMap("InstanceID", "0", "Channel", "Master"));
+                    }
+                    if (isLinked(PanasonicTV2BindingConstants.CHANNEL_MUTE)) {
+                        pollResourceState("RenderingControl", "GetMute",
+                                PanasonicTVUtils.buildHashMap("InstanceID", "0", "Channel", "Master"));
+                    }
+                    if (isMediaInfoLinked()) {
+                        pollResourceState("AVTransport", "GetMediaInfo",
+                                PanasonicTVUtils.buildHashMap("InstanceID", "0"));
+                    }
                 } catch (Exception e) {
-                    logger.debug("Exception during poll : {}", e);
+                    outcome = TrafficRecord.Outcome.ERROR;
+                    journal.record(EventJournal.Type.ERROR, "poll", e);
                 }
+                event.complete(outcome, 0);
             }
         }
     };
 
     @Override
     public void handleCommand(String channel, Command command) {
-        logger.debug("Received channel: {}, command: {}", channel, command);
+        if (command instanceof RefreshType) {
+            refresh(channel);
+            return;
+        }
 
         switch (channel) {
             case PanasonicTV2BindingConstants.CHANNEL_VOLUME:
@@ -151,11 +249,27 @@ public class MediaRendererService implements UpnpIOParticipant, PanasonicTV2Serv
             case PanasonicTV2BindingConstants.CHANNEL_MUTE:
                 setMute(command);
                 break;
+            case PanasonicTV2BindingConstants.CHANNEL_CHANNEL:
+                channelChanged(command);
+                break;
+            case PanasonicTV2BindingConstants.CHANNEL_CAST:
+                cast(command);
+                break;
             default:
                 logger.warn("Panasonic TV doesn't support transmitting for channel '{}'", channel);
         }
     }
 
+    private boolean isLinked(String channel) {
+        return linkedChannels.contains(channel);
+    }
+
+    private boolean isMediaInfoLinked() {
+        return isLinked(PanasonicTV2BindingConstants.CHANNEL_CHANNEL)
+                || isLinked(PanasonicTV2BindingConstants.CHANNEL_CHANNEL_NAME)
+                || isLinked(PanasonicTV2BindingConstants.CHANNEL_PROGRAM_TITLE);
+    }
+
     private boolean isRegistered() {
         return service.isRegistered(this);
     }
@@ -172,44 +286,89 @@ public class MediaRendererService implements UpnpIOParticipant, PanasonicTV2Serv
     @Override
     public void onValueReceived(String variable, String value, String service) {
 
-        String oldValue = stateMap.get(variable);
-        if ((value == null && oldValue == null) || (value != null && value.equals(oldValue))) {
-            logger.trace("Value '{}' for {} hasn't changed, ignoring update", value, variable);
-            return;
+        // Compare and update atomically, otherwise concurrent polls could both publish or lose an update
+        boolean changed;
+        synchronized (stateMap) {
+            String oldValue = stateMap.get(variable);
+            changed = !((value == null && oldValue == null) || (value != null && value.equals(oldValue)));
+            if (changed) {
+                stateMap.put(variable, value);
+            }
         }
 
-        stateMap.put(variable, value);
+        if (changed) {
+            publish(variable, value);
+        } else {
+            logger.trace("Value '{}' for {} hasn't changed, confirming known state", value, variable);
+            confirm(variable);
+        }
+    }
 
+    /*
+     * An unchanged value isn't published again, but the listeners still learn that their known state is current.
+     */
+    private void confirm(String variable) {
+        for (ValueReceiver listener : listeners) {
+            switch (variable) {
+                case "CurrentVolume":
+                    listener.valueConfirmed(PanasonicTV2BindingConstants.CHANNEL_VOLUME);
+                    break;
+                case "CurrentMute":
+                    listener.valueConfirmed(PanasonicTV2BindingConstants.CHANNEL_MUTE);
+                    break;
+                case "CurrentURIMetaData":
+                    listener.valueConfirmed(PanasonicTV2BindingConstants.CHANNEL_CHANNEL);
+                    listener.valueConfirmed(PanasonicTV2BindingConstants.CHANNEL_CHANNEL_NAME);
+                    listener.valueConfirmed(PanasonicTV2BindingConstants.CHANNEL_PROGRAM_TITLE);
+                    break;
+            }
+        }
+    }
+
+    private void publish(String variable, String value) {
         for (ValueReceiver listener : listeners) {
             switch (variable) {
                 case "CurrentVolume":
                     listener.valueReceived(PanasonicTV2BindingConstants.CHANNEL_VOLUME,
-                            (value != null) ? new PercentType(value) : UnDefType.UNDEF);
+                            (value != null) ? DataConverters.convertToPercentState(value) : UnDefType.UNDEF);
                     break;
 
                 case "CurrentMute":
                     State newState = UnDefType.UNDEF;
                     if (value != null) {
-                        newState = value.equals("true") ? OnOffType.ON : OnOffType.OFF;
+                        newState = DataConverters.convertToOnOffState(value);
                     }
                     listener.valueReceived(PanasonicTV2BindingConstants.CHANNEL_MUTE, newState);
                     break;
 
                 case "CurrentURIMetaData":
+                    BindingEvents.Event parse = BindingEvents.begin(BindingEvents.Kind.XML_PARSE,
+                            journal.getOwner(), variable);
                     Document doc = PanasonicTVUtils.loadXMLFromString(value);
-                    Element basicElement = (Element) doc.getFirstChild().getFirstChild();
+                    parse.complete(doc != null ? TrafficRecord.Outcome.OK : TrafficRecord.Outcome.ERROR,
+                            value != null ? value.length() : 0);
+                    Node item = doc != null && doc.getFirstChild() != null ? doc.getFirstChild().getFirstChild()
+                            : null;
+                    if (!(item instanceof Element)) {
+                        logger.debug("Unable to parse media info '{}' of TV '{}'", value, journal.getOwner());
+                        break;
+                    }
+                    Element basicElement = (Element) item;
 
                     Node valueNode;
 
                     // Channel Nr.
                     valueNode = basicElement.getElementsByTagName("upnp:channelNr").item(0);
+                    String channelNr = null;
                     if (valueNode != null) {
+                        channelNr = valueNode.getTextContent();
                         listener.valueReceived(PanasonicTV2BindingConstants.CHANNEL_CHANNEL,
-                                (value != null) ? new DecimalType(valueNode.getTextContent()) : UnDefType.UNDEF);
+                                (value != null) ? new DecimalType(channelNr) : UnDefType.UNDEF);
                     }
                     // Channel Name
                     valueNode = basicElement.getElementsByTagName("upnp:channelName").item(0);
                     if (valueNode != null) {
+                        lineup.learn(channelNr, valueNode.getTextContent());
                         listener.valueReceived(PanasonicTV2BindingConstants.CHANNEL_CHANNEL_NAME,
                                 (value != null) ? new StringType(valueNode.getTextContent()) : UnDefType.UNDEF);
                     }
@@ -226,7 +385,7 @@ public class MediaRendererService implements UpnpIOParticipant, PanasonicTV2Serv
 
     protected Map<String, String> updateResourceState(String serviceId, String actionId, Map<String, String> inputs) {
 
-        Map<String, String> result = service.invokeAction(this, serviceId, actionId, inputs);
+        Map<String, String> result = invoker.invokeAction(this, serviceId, actionId, inputs);
 
         for (String variable : result.keySet()) {
             onValueReceived(variable, result.get(variable), serviceId);
@@ -235,12 +394,247 @@ public class MediaRendererService implements UpnpIOParticipant, PanasonicTV2Serv
         return result;
     }
 
+    /*
+     * A refresh is answered from the state fetched during the last polling interval. An older state is fetched
+     * again, sharing the fetch with a poll or refresh of the same action already in flight.
+     */
+    private void refresh(String channel) {
+        String serviceId;
+        String actionId;
+        String variable;
+        Map<String, String> inputs;
+
+        switch (channel) {
+            case PanasonicTV2BindingConstants.CHANNEL_VOLUME:
+                serviceId = "RenderingControl";
+                actionId = "GetVolume";
+                variable = "CurrentVolume";
+                inputs = PanasonicTVUtils.buildHashMap("InstanceID", "0", "Channel", "Master");
+                break;
+            case PanasonicTV2BindingConstants.CHANNEL_MUTE:
+                serviceId = "RenderingControl";
+                actionId = "GetMute";
+                variable = "CurrentMute";
+                inputs = PanasonicTVUtils.buildHashMap("InstanceID", "0", "Channel", "Master");
+                break;
+            case PanasonicTV2BindingConstants.CHANNEL_CHANNEL:
+            case PanasonicTV2BindingConstants.CHANNEL_CHANNEL_NAME:
+            case PanasonicTV2BindingConstants.CHANNEL_PROGRAM_TITLE:
+                serviceId = "AVTransport";
+                actionId = "GetMediaInfo";
+                variable = "CurrentURIMetaData";
+                inputs = PanasonicTVUtils.buildHashMap("InstanceID", "0");
+                break;
+            default:
+                return;
+        }
+
+        if (!isFresh(actionId)) {
+            pollResourceState(serviceId, actionId, inputs);
+        }
+
+        // Published even if unchanged, the refresh asks for the current state
+        String value = stateMap.get(variable);
+        if (value != null) {
+            publish(variable, value);
+        }
+    }
+
+    private boolean isFresh(String actionId) {
+        Long fetchedAt = fetched.get(actionId);
+        return fetchedAt != null && System.nanoTime() - fetchedAt < TimeUnit.SECONDS.toNanos(pollingInterval);
+    }
+
+    /*
+     * Single flight: the first caller fetches, concurrent callers of the same action wait for its outcome, errors
+     * included, instead of sending the same request again.
+     */
+    private void pollResourceState(String serviceId, String actionId, Map<String, String> inputs) {
+        CompletableFuture<Void> flight = new CompletableFuture<>();
+        CompletableFuture<Void> running = inFlight.putIfAbsent(actionId, flight);
+        if (running != null) {
+            try {
+                running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+            return;
+        }
+
+        try {
+            fetchResourceState(serviceId, actionId, inputs);
+            flight.complete(null);
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(actionId, flight);
+        }
+    }
+
+    /*
+     * Get actions always return output arguments. A fault of the TV counts against the action, whether the TV
+     * lists it in its description or not, while communication errors are passed on and leave the capability
+     * untouched. An empty result only comes from the UPnP IO service, which can't tell the two apart.
+     */
+    private void fetchResourceState(String serviceId, String actionId, Map<String, String> inputs) {
+        if (!capabilities.isSupported(serviceId, actionId)) {
+            return;
+        }
+
+        Map<String, String> result;
+        try {
+            result = updateResourceState(serviceId, actionId, inputs);
+        } catch (ActionFaultException e) {
+            logger.debug("TV answered action '{}' with fault {}", actionId, e.getErrorCode());
+            capabilities.actionFailed(serviceId, actionId);
+            return;
+        }
+
+        if (!result.isEmpty()) {
+            capabilities.actionSucceeded(serviceId, actionId);
+            fetched.put(actionId, System.nanoTime());
+        } else {
+            logger.debug("Action '{}' returned no result, capability left unchanged", actionId);
+        }
+    }
+
+    /*
+     * The channel itself is switched by the remote controller service. The learned channel name is published
+     * right away, the program title follows with a single media info fetch once the TV has tuned.
+     */
+    private void channelChanged(Command command) {
+        if (!(command instanceof DecimalType)) {
+            return;
+        }
+
+        String channelName = lineup.getName(((DecimalType) command).intValue());
+        if (channelName != null) {
+            for (ValueReceiver listener : listeners) {
+                listener.valueReceived(PanasonicTV2BindingConstants.CHANNEL_CHANNEL_NAME, new StringType(channelName));
+            }
+        }
+
+        if (isLinked(PanasonicTV2BindingConstants.CHANNEL_PROGRAM_TITLE)) {
+            scheduleMediaInfoRefresh();
+        }
+    }
+
+    private synchronized void scheduleMediaInfoRefresh() {
+        if (pollingJob == null) {
+            // stopped
+            return;
+        }
+        if (mediaInfoJob != null) {
+            mediaInfoJob.cancel(false);
+        }
+        mediaInfoJob = scheduler.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    pollResourceState("AVTransport", "GetMediaInfo",
+                            PanasonicTVUtils.buildHashMap("InstanceID", "0"));
+                } catch (Exception e) {
+                    journal.record(EventJournal.Type.ERROR, "mediaInfoRefresh", e);
+                }
+            }
+        }, MEDIA_INFO_REFRESH_DELAY, TimeUnit.SECONDS);
+    }
+
+    /*
+     * Local files are published on the media server, which the TV fetches from with range requests. The previous
+     * local file stays published until the TV has been handed the new one.
+     */
+    private void cast(Command command) {
+        if (!(command instanceof StringType)) {
+            return;
+        }
+        String media = command.toString().trim();
+        if (media.isEmpty()) {
+            return;
+        }
+
+        String url;
+        String name;
+        boolean local = !media.startsWith("http://") && !media.startsWith("https://");
+        if (local) {
+            Path file = mediaServer != null ? mediaServer.resolve(media) : null;
+            if (file == null) {
+                logger.warn("Media '{}' not found in the media folder", media);
+                return;
+            }
+            try {
+                url = mediaServer.publish(file, hostName);
+            } catch (IOException e) {
+                journal.record(EventJournal.Type.ERROR, "cast", e);
+                logger.warn("Unable to serve media '{}': {}", media, e.getMessage());
+                return;
+            }
+            name = file.getFileName().toString();
+        } else {
+            url = media;
+            name = media.substring(media.lastIndexOf('/') + 1);
+        }
+
+        String contentType = MediaServer.getContentType(name);
+        String metaData = String.format(DIDL_LITE, PanasonicTV2Communication.escapeXml(name),
+                getUpnpClass(contentType), contentType, PanasonicTV2Communication.escapeXml(url));
+
+        String previous;
+        synchronized (this) {
+            previous = castUrl;
+            castUrl = local ? url : null;
+        }
+        try {
+            invoker.invokeAction(this, "AVTransport", "SetAVTransportURI", PanasonicTVUtils.buildHashMap("InstanceID",
+                    "0", "CurrentURI", url, "CurrentURIMetaData", metaData));
+            invoker.invokeAction(this, "AVTransport", "Play",
+                    PanasonicTVUtils.buildHashMap("InstanceID", "0", "Speed", "1"));
+        } finally {
+            if (previous != null) {
+                mediaServer.unpublish(previous);
+            }
+        }
+    }
+
+    private static String getUpnpClass(String contentType) {
+        if (contentType.startsWith("image/")) {
+            return "object.item.imageItem.photo";
+        }
+        if (contentType.startsWith("audio/")) {
+            return "object.item.audioItem.musicTrack";
+        }
+        return "object.item.videoItem";
+    }
+
     private void setVolume(Command command) {
-        int newValue;
+        int currentValue = 0;
+        if (command instanceof IncreaseDecreaseType) {
+            // Steps need the current volume, which isn't polled while the volume channel is unlinked
+            if (stateMap.get("CurrentVolume") == null) {
+                pollResourceState("RenderingControl", "GetVolume",
+                        PanasonicTVUtils.buildHashMap("InstanceID", "0", "Channel", "Master"));
+            }
+            String currentVolume = stateMap.get("CurrentVolume");
+            if (currentVolume == null) {
+                logger.warn("Volume of the TV unknown, command '{}' not sent", command);
+                return;
+            }
+            try {
+                currentValue = Integer.parseInt(currentVolume.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("Volume '{}' of the TV invalid, command '{}' not sent", currentVolume, command);
+                return;
+            }
+        }
 
+        int newValue;
         try {
-            newValue = DataConverters.convertCommandToIntValue(command, 0, 100,
-                    Integer.valueOf(stateMap.get("CurrentVolume")));
+            newValue = DataConverters.convertCommandToIntValue(command, 0, 100, currentValue);
         } catch (NumberFormatException e) {
             throw new NumberFormatException("Command '" + command + "' not supported");
         }
@@ -248,7 +642,8 @@ public class MediaRendererService implements UpnpIOParticipant, PanasonicTV2Serv
         updateResourceState("RenderingControl", "SetVolume", PanasonicTVUtils.buildHashMap("InstanceID", "0", "Channel",
                 "Master", "DesiredVolume", Integer.toString(newValue)));
 
-        updateResourceState("RenderingControl", "GetVolume",
+        // Not shared with a fetch in flight, that one may have started before the volume was set
+        fetchResourceState("RenderingControl", "GetVolume",
                 PanasonicTVUtils.buildHashMap("InstanceID", "0", "Channel", "Master"));
     }
 
@@ -264,7 +659,7 @@ public class MediaRendererService implements UpnpIOParticipant, PanasonicTV2Serv
         updateResourceState("RenderingControl", "SetMute", PanasonicTVUtils.buildHashMap("InstanceID", "0", "Channel",
                 "Master", "DesiredMute", Boolean.toString(newValue)));
 
-        updateResourceState("RenderingControl", "GetMute",
+        fetchResourceState("RenderingControl", "GetMute",
                 PanasonicTVUtils.buildHashMap("InstanceID", "0", "Channel", "Master"));
 
     }
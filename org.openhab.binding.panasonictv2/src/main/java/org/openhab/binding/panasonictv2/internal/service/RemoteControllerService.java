@@ -12,15 +12,25 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.smarthome.core.library.types.DecimalType;
 import org.eclipse.smarthome.core.library.types.OnOffType;
 import org.eclipse.smarthome.core.library.types.StringType;
 import org.eclipse.smarthome.core.types.Command;
+import org.eclipse.smarthome.core.types.RefreshType;
 import org.eclipse.smarthome.io.transport.upnp.UpnpIOParticipant;
 import org.eclipse.smarthome.io.transport.upnp.UpnpIOService;
 import org.openhab.binding.panasonictv2.PanasonicTV2BindingConstants;
+import org.openhab.binding.panasonictv2.config.PanasonicTV2Configuration;
+import org.openhab.binding.panasonictv2.internal.jfr.BindingEvents;
+import org.openhab.binding.panasonictv2.internal.protocol.ActionFaultException;
+import org.openhab.binding.panasonictv2.internal.protocol.CommunicationException;
 import org.openhab.binding.panasonictv2.internal.protocol.KeyCode;
+import org.openhab.binding.panasonictv2.internal.protocol.PanasonicTV2Communication;
+import org.openhab.binding.panasonictv2.internal.protocol.SoapResponse;
+import org.openhab.binding.panasonictv2.internal.protocol.TrafficRecord;
 import org.openhab.binding.panasonictv2.internal.service.api.PanasonicTV2Service;
 import org.openhab.binding.panasonictv2.internal.service.api.ValueReceiver;
 import org.slf4j.Logger;
@@ -36,23 +46,81 @@ public class RemoteControllerService implements UpnpIOParticipant, PanasonicTV2S
 
     public static final String SERVICE_NAME = "p00RemoteController";
     private final List<String> supportedCommands = Arrays.asList(PanasonicTV2BindingConstants.CHANNEL_KEY_CODE,
-            PanasonicTV2BindingConstants.CHANNEL_POWER, PanasonicTV2BindingConstants.CHANNEL_CHANNEL);
+            PanasonicTV2BindingConstants.CHANNEL_POWER, PanasonicTV2BindingConstants.CHANNEL_CHANNEL,
+            PanasonicTV2BindingConstants.CHANNEL_TEXT_INPUT, PanasonicTV2BindingConstants.CHANNEL_APP,
+            PanasonicTV2BindingConstants.CHANNEL_INPUT);
+
+    /** UPnP error code of a TV which doesn't implement an action */
+    private static final String ERROR_INVALID_ACTION = "401";
+
+    /** UPnP error code of a TV which doesn't accept an argument, e.g. a key name it doesn't know */
+    private static final String ERROR_INVALID_ARGS = "402";
+
+    /** Time in nanoseconds a tracked input is trusted, the physical remote may have changed it meanwhile */
+    private static final long INPUT_MAX_AGE = TimeUnit.MINUTES.toNanos(5);
+
+    /** How the TV answered a key */
+    private enum KeyResult {
+        /** The TV accepted the key */
+        ACCEPTED,
+        /** The key was sent, but the transport doesn't report whether the TV accepted it */
+        SENT,
+        /** The TV doesn't know the key */
+        REJECTED
+    }
+
+    private static class TrackedInput {
+        private final String name;
+        private final long selected;
+
+        TrackedInput(String name) {
+            this.name = name;
+            this.selected = System.nanoTime();
+        }
+    }
 
     private Logger logger = LoggerFactory.getLogger(RemoteControllerService.class);
 
     private UpnpIOService service;
+    private UpnpActionInvoker invoker;
+
+    /** Direct SOAP transport for key codes, null if keys are sent by UPnP action invocation */
+    private PanasonicTV2Communication communication;
 
     private String udn;
 
-    public RemoteControllerService(UpnpIOService upnpIOService, String udn) {
+    /** UID of the thing, attached to flight recorder events */
+    private String thingUID;
+
+    /** Actions the TV doesn't implement, X_SendString is skipped in favour of key by key entry */
+    private CapabilityCache capabilities;
+
+    /** Apps installed on the TV, fetched on demand */
+    private AppCatalog apps;
+
+    /** Inputs in the order the input key cycles through them, replaced when the configuration changes */
+    private volatile List<String> inputCycle;
+
+    /** Input selected last, null if unknown. The TV doesn't report it, so it is tracked from accepted keys */
+    private volatile TrackedInput currentInput;
+
+    private List<ValueReceiver> listeners = new CopyOnWriteArrayList<ValueReceiver>();
+
+    public RemoteControllerService(ServiceContext context, String udn) {
         logger.debug("Create a Panasonic TV MediaRenderer service");
 
-        if (upnpIOService != null) {
-            service = upnpIOService;
+        if (context.getUpnpIOService() != null) {
+            service = context.getUpnpIOService();
         } else {
             logger.debug("upnpIOService not set.");
         }
+        this.invoker = context.getInvoker();
+        this.communication = context.getCommunication();
+        this.capabilities = context.getCapabilities();
+        this.apps = context.getApps();
+        this.inputCycle = context.getConfiguration().getInputCycle();
         this.udn = udn;
+        this.thingUID = context.getJournal().getOwner();
     }
 
     @Override
@@ -67,11 +135,12 @@ public class RemoteControllerService implements UpnpIOParticipant, PanasonicTV2S
 
     @Override
     public void addEventListener(ValueReceiver listener) {
-        // This service does not send any value updates
+        listeners.add(listener);
     }
 
     @Override
     public void removeEventListener(ValueReceiver listener) {
+        listeners.remove(listener);
     }
 
     @Override
@@ -87,9 +156,21 @@ public class RemoteControllerService implements UpnpIOParticipant, PanasonicTV2S
     public void clearCache() {
     }
 
+    @Override
+    public void applyConfiguration(PanasonicTV2Configuration configuration) {
+        inputCycle = configuration.getInputCycle();
+    }
+
     @Override
     public void handleCommand(String channel, Command command) {
-        logger.debug("Received channel: {}, command: {}", channel, command);
+        if (command instanceof RefreshType) {
+            // Only the tracked input is known, the TV can't be asked for the state of the other channels
+            String input = getCurrentInput();
+            if (PanasonicTV2BindingConstants.CHANNEL_INPUT.equals(channel) && input != null) {
+                publishInput(input);
+            }
+            return;
+        }
 
         KeyCode key = null;
 
@@ -150,6 +231,24 @@ public class RemoteControllerService implements UpnpIOParticipant, PanasonicTV2S
                     sendKeys(commands);
                 }
                 break;
+
+            case PanasonicTV2BindingConstants.CHANNEL_TEXT_INPUT:
+                if (command instanceof StringType) {
+                    sendText(command.toString());
+                }
+                break;
+
+            case PanasonicTV2BindingConstants.CHANNEL_APP:
+                if (command instanceof StringType) {
+                    launchApp(command.toString());
+                }
+                break;
+
+            case PanasonicTV2BindingConstants.CHANNEL_INPUT:
+                if (command instanceof StringType) {
+                    selectInput(command.toString().toUpperCase());
+                }
+                break;
         }
     }
 
@@ -179,13 +278,306 @@ public class RemoteControllerService implements UpnpIOParticipant, PanasonicTV2S
      * @param key Button code to send
      */
     private void sendKeyCode(final KeyCode key) {
-        updateResourceState("p00NetworkControl", "X_SendKey",
-                PanasonicTVUtils.buildHashMap("X_KeyEvent", key.toString()));
+        BindingEvents.Event event = BindingEvents.begin(BindingEvents.Kind.KEY_SEND, thingUID, key.toString());
+        TrafficRecord.Outcome outcome = TrafficRecord.Outcome.ERROR;
+        try {
+            if (communication != null) {
+                outcome = communication.sendKey(key).isFault() ? TrafficRecord.Outcome.FAULT
+                        : TrafficRecord.Outcome.OK;
+                return;
+            }
+            updateResourceState("p00NetworkControl", "X_SendKey",
+                    PanasonicTVUtils.buildHashMap("X_KeyEvent", key.toString()));
+            outcome = TrafficRecord.Outcome.OK;
+        } finally {
+            event.complete(outcome, key.toString().length());
+        }
+    }
+
+    /**
+     * Sends a text to the focused input field of the TV in a single X_SendString call. Only if the TV
+     * doesn't implement the action the text is entered key by key, any other fault fails the command.
+     *
+     * @param text Text to send
+     */
+    private void sendText(String text) {
+        if (text.isEmpty()) {
+            return;
+        }
+
+        if (capabilities.isSupported("p00NetworkControl", "X_SendString")) {
+            String errorCode;
+            if (communication == null) {
+                try {
+                    updateResourceState("p00NetworkControl", "X_SendString",
+                            PanasonicTVUtils.buildHashMap("X_String", text));
+                    capabilities.actionSucceeded("p00NetworkControl", "X_SendString");
+                    return;
+                } catch (ActionFaultException e) {
+                    errorCode = e.getErrorCode();
+                    if (!ERROR_INVALID_ACTION.equals(errorCode)) {
+                        throw new CommunicationException("Text rejected: " + e.getMessage(), e);
+                    }
+                }
+            } else {
+                SoapResponse response = communication.sendString(text);
+                if (!response.isFault()) {
+                    capabilities.actionSucceeded("p00NetworkControl", "X_SendString");
+                    return;
+                }
+                errorCode = response.getErrorCode();
+                if (!ERROR_INVALID_ACTION.equals(errorCode)) {
+                    throw new CommunicationException("Text rejected: " + response);
+                }
+            }
+            logger.debug("TV doesn't support X_SendString, text is entered key by key from now on");
+            capabilities.markUnsupported("p00NetworkControl", "X_SendString");
+        }
+
+        sendTextKeys(text);
+    }
+
+    /**
+     * Selects an input with its direct selection key. Inputs without such a key, or models rejecting it, are
+     * reached with the fewest presses of the input key, starting from the tracked current input or else from an
+     * input of the cycle selected with its direct key.
+     *
+     * @param input Upper case name of the input
+     */
+    private void selectInput(String input) {
+        KeyCode directKey = getDirectInputKey(input);
+        if (directKey != null) {
+            KeyResult result = sendInputKey(directKey);
+            if (result != KeyResult.REJECTED) {
+                inputChanged(input, result == KeyResult.ACCEPTED);
+                return;
+            }
+        }
+
+        List<String> cycle = inputCycle;
+        int target = cycle.indexOf(input);
+        if (target < 0) {
+            logger.warn("Input '{}' can't be selected, it is not part of the input cycle {}", input, cycle);
+            return;
+        }
+
+        String start = getCurrentInput();
+        if (start == null || !cycle.contains(start)) {
+            start = selectKnownInput(cycle);
+            if (start == null) {
+                logger.warn("Input '{}' can't be selected, the current input is unknown", input);
+                return;
+            }
+        }
+
+        int steps = (target - cycle.indexOf(start) + cycle.size()) % cycle.size();
+        boolean accepted = true;
+        if (steps > 0) {
+            // The first press opens the input menu on the current input, every further press moves by one
+            List<KeyCode> keys = new ArrayList<KeyCode>(steps + 2);
+            for (int i = 0; i <= steps; i++) {
+                keys.add(KeyCode.NRC_CHG_INPUT);
+            }
+            keys.add(KeyCode.NRC_ENTER);
+            for (KeyCode key : keys) {
+                accepted &= sendInputKey(key) == KeyResult.ACCEPTED;
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    inputChanged(input, false);
+                    return;
+                }
+            }
+        }
+        inputChanged(input, accepted);
+    }
+
+    /*
+     * The cycle only starts from an input the TV confirmed, so the first input of the cycle whose direct key is
+     * accepted is selected. Returns null if there is none.
+     */
+    private String selectKnownInput(List<String> cycle) {
+        for (String input : cycle) {
+            KeyCode key = getDirectInputKey(input);
+            if (key == null) {
+                continue;
+            }
+            KeyResult result = sendInputKey(key);
+            if (result == KeyResult.ACCEPTED) {
+                inputChanged(input, true);
+                return input;
+            }
+            if (result == KeyResult.SENT) {
+                // Without confirmation the input is as unknown as before
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static KeyCode getDirectInputKey(String input) {
+        switch (input) {
+            case "TV":
+                return KeyCode.NRC_TV;
+            case "HDMI1":
+                return KeyCode.NRC_HDMI1;
+            case "HDMI2":
+                return KeyCode.NRC_HDMI2;
+            case "HDMI3":
+                return KeyCode.NRC_HDMI3;
+            case "HDMI4":
+                return KeyCode.NRC_HDMI4;
+            default:
+                return null;
+        }
+    }
+
+    /*
+     * Not all models know every key used to select inputs. A key the TV rejects as invalid action or argument is
+     * remembered and not tried again. Any other fault, e.g. a TV busy booting, says nothing about the key and
+     * fails this selection only. UPnP invocations report faults only for TVs in the UPnP registry.
+     */
+    private KeyResult sendInputKey(KeyCode key) {
+        String capability = "X_SendKey:" + key.name();
+        if (!capabilities.isSupported("p00NetworkControl", capability)) {
+            return KeyResult.REJECTED;
+        }
+
+        String errorCode = null;
+        if (communication == null) {
+            try {
+                updateResourceState("p00NetworkControl", "X_SendKey",
+                        PanasonicTVUtils.buildHashMap("X_KeyEvent", key.toString()));
+            } catch (ActionFaultException e) {
+                errorCode = e.getErrorCode();
+                if (!ERROR_INVALID_ACTION.equals(errorCode) && !ERROR_INVALID_ARGS.equals(errorCode)) {
+                    throw new CommunicationException("Key " + key + " rejected: " + e.getMessage(), e);
+                }
+            }
+            if (errorCode == null && !invoker.reportsFaults(this, "p00NetworkControl")) {
+                return KeyResult.SENT;
+            }
+        } else {
+            SoapResponse response = communication.sendKey(key);
+            if (response.isFault()) {
+                errorCode = response.getErrorCode();
+                if (!ERROR_INVALID_ACTION.equals(errorCode) && !ERROR_INVALID_ARGS.equals(errorCode)) {
+                    throw new CommunicationException("Key " + key + " rejected: " + response);
+                }
+            }
+        }
+
+        if (errorCode != null) {
+            logger.debug("TV doesn't know key {}, it is not sent again", key);
+            capabilities.markUnsupported("p00NetworkControl", capability);
+            return KeyResult.REJECTED;
+        }
+        capabilities.actionSucceeded("p00NetworkControl", capability);
+        return KeyResult.ACCEPTED;
+    }
+
+    /*
+     * Returns null if the input is unknown or tracked too long ago to be trusted.
+     */
+    private String getCurrentInput() {
+        TrackedInput input = currentInput;
+        if (input == null || System.nanoTime() - input.selected > INPUT_MAX_AGE) {
+            return null;
+        }
+        return input.name;
+    }
+
+    /*
+     * An input the TV didn't confirm is not published, the input is unknown from then on.
+     */
+    private void inputChanged(String input, boolean confirmed) {
+        if (!confirmed) {
+            logger.debug("Selection of input '{}' not confirmed by the TV, the current input is unknown", input);
+            currentInput = null;
+            return;
+        }
+        currentInput = new TrackedInput(input);
+        publishInput(input);
+    }
+
+    private void publishInput(String input) {
+        for (ValueReceiver listener : listeners) {
+            listener.valueReceived(PanasonicTV2BindingConstants.CHANNEL_INPUT, new StringType(input));
+        }
+    }
+
+    /**
+     * Launches an app with a single X_LaunchApp call. The product id is resolved from the app catalog, which
+     * is only fetched from the TV when it expired or doesn't know the app yet.
+     *
+     * @param name Name or product id of the app
+     */
+    private void launchApp(String name) {
+        if (apps.needsRefresh(name)) {
+            fetchAppList();
+        }
+
+        String productId = apps.getProductId(name);
+        if (productId == null) {
+            logger.warn("App '{}' is not installed on the TV", name);
+            return;
+        }
+
+        String keyword = "product_id=" + productId;
+        if (communication != null) {
+            SoapResponse response = communication.invokeAction("X_LaunchApp", "<X_AppType>vc_app</X_AppType>"
+                    + "<X_LaunchKeyword>" + PanasonicTV2Communication.escapeXml(keyword) + "</X_LaunchKeyword>");
+            if (response.isFault()) {
+                logger.debug("Launching app '{}' failed: {}", name, response);
+            }
+        } else {
+            updateResourceState("p00NetworkControl", "X_LaunchApp",
+                    PanasonicTVUtils.buildHashMap("X_AppType", "vc_app", "X_LaunchKeyword", keyword));
+        }
+    }
+
+    private void fetchAppList() {
+        String appList;
+        if (communication != null) {
+            SoapResponse response = communication.invokeAction("X_GetAppList", "", "X_AppList");
+            if (response.isFault()) {
+                logger.debug("Fetching the app list failed: {}", response);
+                return;
+            }
+            appList = response.getOutput();
+        } else {
+            appList = updateResourceState("p00NetworkControl", "X_GetAppList", PanasonicTVUtils.buildHashMap())
+                    .get("X_AppList");
+        }
+
+        if (appList != null) {
+            apps.update(appList);
+        }
+    }
+
+    /**
+     * Enters a text key by key. The remote controller only has keys for digits, other characters can't be
+     * entered this way.
+     *
+     * @param text Text to send
+     */
+    private void sendTextKeys(String text) {
+        List<KeyCode> keys = new ArrayList<KeyCode>(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                logger.warn("Text '{}' can't be entered key by key, character '{}' has no key", text, c);
+                return;
+            }
+            keys.add(KeyCode.valueOf("NRC_D" + c));
+        }
+        sendKeys(keys);
     }
 
     protected Map<String, String> updateResourceState(String serviceId, String actionId, Map<String, String> inputs) {
 
-        Map<String, String> result = service.invokeAction(this, serviceId, actionId, inputs);
+        Map<String, String> result = invoker.invokeAction(this, serviceId, actionId, inputs);
 
         for (String variable : result.keySet()) {
             onValueReceived(variable, result.get(variable), serviceId);
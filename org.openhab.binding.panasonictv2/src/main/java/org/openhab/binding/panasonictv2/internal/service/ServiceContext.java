@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal.service;
+
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.eclipse.smarthome.io.transport.upnp.UpnpIOService;
+import org.openhab.binding.panasonictv2.config.PanasonicTV2Configuration;
+import org.openhab.binding.panasonictv2.internal.EventJournal;
+import org.openhab.binding.panasonictv2.internal.MediaServer;
+import org.openhab.binding.panasonictv2.internal.protocol.PanasonicTV2Communication;
+
+/**
+ * The {@link ServiceContext} bundles everything the services of a single Panasonic TV share.
+ *
+ * @author Charky - Initial contribution
+ */
+public class ServiceContext {
+
+    private final UpnpIOService upnpIOService;
+    private final UpnpActionInvoker invoker;
+    private final PanasonicTV2Communication communication;
+    private final ScheduledExecutorService scheduler;
+    private final ChannelLineup lineup;
+    private final PanasonicTV2Configuration configuration;
+    private final Set<String> linkedChannels;
+    private final EventJournal journal;
+    private final CapabilityCache capabilities;
+    private final AppCatalog apps;
+    private final MediaServer mediaServer;
+
+    /**
+     * @param upnpIOService UPnP service of the framework
+     * @param invoker Invoker for UPnP actions of the TV
+     * @param communication Direct SOAP transport, null if key codes are sent by UPnP action invocation
+     * @param scheduler Scheduler for polling and delayed jobs
+     * @param lineup Learned channel lineup of the TV
+     * @param configuration Configuration of the TV thing
+     * @param linkedChannels Ids of the channels linked to an item, kept up to date by the handler
+     * @param journal Event journal of the TV
+     * @param capabilities Actions the TV is known not to implement
+     * @param apps Apps installed on the TV
+     * @param mediaServer Server for local media cast to the TV, null if casting local media is not possible
+     */
+    public ServiceContext(UpnpIOService upnpIOService, UpnpActionInvoker invoker,
+            PanasonicTV2Communication communication, ScheduledExecutorService scheduler, ChannelLineup lineup,
+            PanasonicTV2Configuration configuration, Set<String> linkedChannels, EventJournal journal,
+            CapabilityCache capabilities, AppCatalog apps, MediaServer mediaServer) {
+        this.upnpIOService = upnpIOService;
+        this.invoker = invoker;
+        this.communication = communication;
+        this.scheduler = scheduler;
+        this.lineup = lineup;
+        this.configuration = configuration;
+        this.linkedChannels = linkedChannels;
+        this.journal = journal;
+        this.capabilities = capabilities;
+        this.apps = apps;
+        this.mediaServer = mediaServer;
+    }
+
+    public UpnpIOService getUpnpIOService() {
+        return upnpIOService;
+    }
+
+    public UpnpActionInvoker getInvoker() {
+        return invoker;
+    }
+
+    public PanasonicTV2Communication getCommunication() {
+        return communication;
+    }
+
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    public ChannelLineup getLineup() {
+        return lineup;
+    }
+
+    public PanasonicTV2Configuration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * @return Live view of the ids of the channels linked to an item
+     */
+    public Set<String> getLinkedChannels() {
+        return linkedChannels;
+    }
+
+    public EventJournal getJournal() {
+        return journal;
+    }
+
+    public CapabilityCache getCapabilities() {
+        return capabilities;
+    }
+
+    public AppCatalog getApps() {
+        return apps;
+    }
+
+    public MediaServer getMediaServer() {
+        return mediaServer;
+    }
+}
@@ -12,7 +12,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.eclipse.smarthome.io.transport.upnp.UpnpIOService;
 import org.openhab.binding.panasonictv2.internal.service.api.PanasonicTV2Service;
 
 /**
@@ -36,24 +35,20 @@ public class ServiceFactory {
      * Create Samsung TV service.
      *
      * @param type
-     * @param upnpIOService
      * @param udn
-     * @param pollingInterval
-     * @param host
-     * @param port
+     * @param context
      * @return
      */
-    public static PanasonicTV2Service createService(String type, UpnpIOService upnpIOService, String udn,
-            int pollingInterval, String host, int port) {
+    public static PanasonicTV2Service createService(String type, String udn, ServiceContext context) {
 
         PanasonicTV2Service service = null;
 
         switch (type) {
             case MediaRendererService.SERVICE_NAME:
-                service = new MediaRendererService(upnpIOService, udn, pollingInterval);
+                service = new MediaRendererService(context, udn);
                 break;
             case RemoteControllerService.SERVICE_NAME:
-                service = new RemoteControllerService(upnpIOService, udn);
+                service = new RemoteControllerService(context, udn);
                 break;
         }
 
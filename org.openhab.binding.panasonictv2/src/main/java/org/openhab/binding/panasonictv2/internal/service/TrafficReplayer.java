@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal.service;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.smarthome.core.thing.ThingUID;
+import org.eclipse.smarthome.io.transport.upnp.UpnpIOParticipant;
+import org.openhab.binding.panasonictv2.PanasonicTV2BindingConstants;
+import org.openhab.binding.panasonictv2.config.PanasonicTV2Configuration;
+import org.openhab.binding.panasonictv2.internal.EventJournal;
+import org.openhab.binding.panasonictv2.internal.ThingDataStore;
+import org.openhab.binding.panasonictv2.internal.protocol.ActionFaultException;
+import org.openhab.binding.panasonictv2.internal.protocol.CommunicationException;
+import org.openhab.binding.panasonictv2.internal.protocol.TrafficRecord;
+import org.openhab.binding.panasonictv2.internal.service.api.ValueReceiver;
+
+/**
+ * The {@link TrafficReplayer} feeds a traffic log written by the
+ * {@link org.openhab.binding.panasonictv2.internal.protocol.TrafficRecorder} back into the real services.
+ * Responses are served from the log instead of the TV, so response parsing and state dispatch can be
+ * benchmarked against real traffic of a given TV model. Recorded faults and errors are replayed as such, a call
+ * which doesn't match the recorded one counts as an error.
+ *
+ * @author Charky - Initial contribution
+ */
+public class TrafficReplayer {
+
+    private static final ThingUID REPLAY_THING_UID = new ThingUID(PanasonicTV2BindingConstants.THING_TYPE_PANASONICTV,
+            "replay");
+    private static final String REPLAY_UDN = "replay";
+
+    /**
+     * Statistics of a replay run.
+     */
+    public static class Statistics {
+        public int calls;
+        /** Calls the recorded TV answered with a fault */
+        public int faults;
+        /** Calls which failed or didn't match the record */
+        public int errors;
+        /** Time spent in the services, excluding simulated TV latency */
+        public long processingNanos;
+        /** Total duration of the replay */
+        public long wallNanos;
+
+        @Override
+        public String toString() {
+            return String.format("%d calls (%d faults, %d errors), processing %.3f ms (%.1f us/call), wall %.3f ms",
+                    calls, faults, errors, processingNanos / 1e6, calls > 0 ? processingNanos / 1e3 / calls : 0.0,
+                    wallNanos / 1e6);
+        }
+    }
+
+    private final List<TrafficRecord> records;
+    private final double speed;
+
+    /**
+     * @param records Records of a traffic log
+     * @param speed Replay speed, 1 for original timing, 10 for ten times faster, 0 for no delays at all
+     */
+    public TrafficReplayer(List<TrafficRecord> records, double speed) {
+        this.records = records;
+        this.speed = speed;
+    }
+
+    /**
+     * Replay all records through fresh service instances.
+     *
+     * @param receiver Receiver of the states published by the services, may be null
+     * @return Statistics of the run
+     */
+    public Statistics replay(ValueReceiver receiver) {
+        ReplayInvoker invoker = new ReplayInvoker();
+        ThingDataStore store = new ThingDataStore(null, REPLAY_THING_UID);
+        ServiceContext context = new ServiceContext(null, invoker, null, null, new ChannelLineup(store),
+                new PanasonicTV2Configuration(), new HashSet<>(mediaRendererChannels()),
+                new EventJournal(REPLAY_THING_UID.toString()), new CapabilityCache(store), new AppCatalog(store), null);
+
+        MediaRendererService mediaRenderer = new MediaRendererService(context, REPLAY_UDN);
+        RemoteControllerService remoteController = new RemoteControllerService(context, REPLAY_UDN);
+        if (receiver != null) {
+            mediaRenderer.addEventListener(receiver);
+        }
+
+        Statistics statistics = new Statistics();
+        long begin = System.nanoTime();
+
+        for (TrafficRecord record : records) {
+            if (speed > 0) {
+                sleepUntil(begin + (long) (record.getOffsetNanos() / speed));
+            }
+
+            invoker.next = record;
+            invoker.sleptNanos = 0;
+            long start = System.nanoTime();
+            try {
+                if ("p00NetworkControl".equals(record.getServiceId())) {
+                    remoteController.updateResourceState(record.getServiceId(), record.getActionId(),
+                            record.getInputs());
+                } else {
+                    mediaRenderer.updateResourceState(record.getServiceId(), record.getActionId(),
+                            record.getInputs());
+                }
+            } catch (ActionFaultException e) {
+                statistics.faults++;
+            } catch (CommunicationException e) {
+                statistics.errors++;
+            }
+            statistics.processingNanos += System.nanoTime() - start - invoker.sleptNanos;
+            statistics.calls++;
+        }
+
+        statistics.wallNanos = System.nanoTime() - begin;
+        return statistics;
+    }
+
+    private static List<String> mediaRendererChannels() {
+        return Arrays.asList(PanasonicTV2BindingConstants.CHANNEL_VOLUME, PanasonicTV2BindingConstants.CHANNEL_MUTE,
+                PanasonicTV2BindingConstants.CHANNEL_CHANNEL, PanasonicTV2BindingConstants.CHANNEL_CHANNEL_NAME,
+                PanasonicTV2BindingConstants.CHANNEL_PROGRAM_TITLE);
+    }
+
+    private void sleepUntil(long deadline) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Invoker answering with the recorded response after the recorded, scaled latency.
+     */
+    private class ReplayInvoker extends UpnpActionInvoker {
+
+        private TrafficRecord next;
+        private long sleptNanos;
+
+        ReplayInvoker() {
+            super(null, null, null, 0, null, null);
+        }
+
+        @Override
+        public Map<String, String> invokeAction(UpnpIOParticipant participant, String serviceId, String actionId,
+                Map<String, String> inputs) {
+            if (speed > 0) {
+                long start = System.nanoTime();
+                sleepUntil(start + (long) (next.getLatencyNanos() / speed));
+                sleptNanos = System.nanoTime() - start;
+            }
+
+            if (!serviceId.equals(next.getServiceId()) || !actionId.equals(next.getActionId())) {
+                throw new CommunicationException("Action '" + serviceId + "/" + actionId + "' invoked, but '"
+                        + next.getServiceId() + "/" + next.getActionId() + "' recorded");
+            }
+            switch (next.getOutcome()) {
+                case FAULT:
+                    // The log keeps the message of a fault only
+                    throw new ActionFaultException("Recorded fault: " + next.getError(), null);
+                case ERROR:
+                    throw new CommunicationException("Recorded error: " + next.getError());
+                default:
+                    return next.getOutputs();
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/**
+ * Copyright (c) 2010-2017 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.panasonictv2.internal.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.smarthome.core.common.NamedThreadFactory;
+import org.eclipse.smarthome.io.transport.upnp.UpnpIOParticipant;
+import org.eclipse.smarthome.io.transport.upnp.UpnpIOService;
+import org.jupnp.UpnpService;
+import org.jupnp.controlpoint.ActionCallback;
+import org.jupnp.controlpoint.ControlPoint;
+import org.jupnp.model.action.ActionArgumentValue;
+import org.jupnp.model.action.ActionException;
+import org.jupnp.model.action.ActionInvocation;
+import org.jupnp.model.message.UpnpResponse;
+import org.jupnp.model.meta.Action;
+import org.jupnp.model.meta.Device;
+import org.jupnp.model.meta.Service;
+import org.jupnp.model.types.UDN;
+import org.openhab.binding.panasonictv2.internal.EventJournal;
+import org.openhab.binding.panasonictv2.internal.jfr.BindingEvents;
+import org.openhab.binding.panasonictv2.internal.protocol.ActionFaultException;
+import org.openhab.binding.panasonictv2.internal.protocol.CircuitBreaker;
+import org.openhab.binding.panasonictv2.internal.protocol.CommunicationException;
+import org.openhab.binding.panasonictv2.internal.protocol.TrafficRecord;
+import org.openhab.binding.panasonictv2.internal.protocol.TrafficRecorder;
+
+/**
+ * The {@link UpnpActionInvoker} invokes UPnP actions on a single Panasonic TV. Every call is limited by a
+ * timeout and guarded by the circuit breaker of the TV, so a TV which stopped answering cannot hold the
+ * calling thread.
+ *
+ * Actions run on a pool of their own which grows with the number of calls in flight instead of queueing them, so
+ * the timeout of a call starts when the call starts and TVs which stopped answering cannot delay the others.
+ *
+ * Actions of TVs in the UPnP registry are invoked directly, so a fault of the TV can be told apart from a TV which
+ * didn't answer. The UPnP IO service, which answers both alike with an empty result, is only used for TVs the
+ * registry doesn't know. As such a TV answers no Get action without output, an empty result of a Get action counts
+ * as a communication error there.
+ *
+ * @author Charky - Initial contribution
+ */
+public class UpnpActionInvoker {
+
+    private static final String THREAD_POOL_NAME = "panasonictv2-upnp";
+
+    /** Number of actions in flight at most, across all TVs */
+    private static final int MAX_THREADS = 256;
+
+    private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(0, MAX_THREADS, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new NamedThreadFactory(THREAD_POOL_NAME, true));
+
+    private final UpnpIOService service;
+    private final UpnpService upnpService;
+    private final CircuitBreaker breaker;
+    private volatile int timeout;
+    private final TrafficRecorder recorder;
+    private final EventJournal journal;
+
+    /**
+     * Invocation of a single action, remembering the response of a failed one.
+     */
+    @SuppressWarnings("rawtypes")
+    private static class Call extends ActionCallback {
+        private boolean failed;
+        private UpnpResponse response;
+        private String message;
+
+        Call(ActionInvocation<?> invocation, ControlPoint controlPoint) {
+            super(invocation, controlPoint);
+        }
+
+        @Override
+        public void success(ActionInvocation invocation) {
+        }
+
+        @Override
+        public void failure(ActionInvocation invocation, UpnpResponse operation, String defaultMessage) {
+            failed = true;
+            response = operation;
+            message = defaultMessage;
+        }
+    }
+
+    /**
+     * @param upnpIOService UPnP service used to invoke the actions
+     * @param upnpService UPnP service whose registry holds the service descriptions and whose control point
+     *            invokes the actions, may be null
+     * @param breaker Circuit breaker of the TV
+     * @param timeout Time in milliseconds a single action may take
+     * @param recorder Recorder for the traffic to the TV, null if traffic isn't recorded
+     * @param journal Event journal of the TV
+     */
+    public UpnpActionInvoker(UpnpIOService upnpIOService, UpnpService upnpService, CircuitBreaker breaker,
+            int timeout, TrafficRecorder recorder, EventJournal journal) {
+        this.service = upnpIOService;
+        this.upnpService = upnpService;
+        this.breaker = breaker;
+        this.timeout = timeout;
+        this.recorder = recorder;
+        this.journal = journal;
+    }
+
+    /**
+     * Procedure to change the time an action may take, applies to actions invoked from now on.
+     *
+     * @param timeout Time in milliseconds a single action may take
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Invoke an UPnP action.
+     *
+     * @return Output arguments of the action
+     * @throws ActionFaultException if the TV answered with a fault or its service description lacks the action
+     * @throws CommunicationException if the action failed, timed out or the circuit breaker is open
+     */
+    public Map<String, String> invokeAction(final UpnpIOParticipant participant, final String serviceId,
+            final String actionId, final Map<String, String> inputs) {
+        final Service<?, ?> description = findService(participant, serviceId);
+        if (description != null && description.getAction(actionId) == null) {
+            journal.record(EventJournal.Type.ERROR, actionId, "not in service description");
+            throw new ActionFaultException("Action '" + actionId + "' not offered by the TV",
+                    ActionFaultException.ERROR_INVALID_ACTION);
+        }
+
+        if (!breaker.allowRequest()) {
+            journal.record(EventJournal.Type.ERROR, actionId, "circuit breaker open");
+            throw new CommunicationException("Circuit breaker open, action '" + actionId + "' not invoked");
+        }
+
+        long start = System.nanoTime();
+        BindingEvents.Event event = BindingEvents.begin(BindingEvents.Kind.UPNP_ACTION, journal.getOwner(), actionId);
+        Future<Map<String, String>> future;
+        try {
+            future = EXECUTOR.submit(new Callable<Map<String, String>>() {
+
+                @Override
+                public Map<String, String> call() throws Exception {
+                    if (description == null) {
+                        Map<String, String> result = service.invokeAction(participant, serviceId, actionId, inputs);
+                        // The UPnP IO service answers errors with an empty result, a Get action always has output
+                        if (result.isEmpty() && actionId.startsWith("Get")) {
+                            throw new CommunicationException("No result of action '" + actionId + "'");
+                        }
+                        return result;
+                    }
+                    return execute(description.getAction(actionId), inputs);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Not a failure of this TV, a probe of a half-open breaker may be sent again
+            breaker.recordCancelled();
+            event.complete(TrafficRecord.Outcome.ERROR, 0);
+            journal.record(EventJournal.Type.ERROR, actionId, "too many actions in flight");
+            throw new CommunicationException("Too many actions in flight, action '" + actionId + "' not invoked");
+        }
+
+        try {
+            Map<String, String> result = future.get(timeout, TimeUnit.MILLISECONDS);
+            breaker.recordSuccess();
+            record(start, event, TrafficRecord.Outcome.OK, serviceId, actionId, inputs, result, null);
+            return result;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            breaker.recordFailure();
+            record(start, event, TrafficRecord.Outcome.ERROR, serviceId, actionId, inputs, null, "timeout");
+            throw new CommunicationException("Action '" + actionId + "' timed out after " + timeout + " ms");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ActionFaultException) {
+                // The TV answered, so it is reachable
+                breaker.recordSuccess();
+                record(start, event, TrafficRecord.Outcome.FAULT, serviceId, actionId, inputs, null,
+                        e.getCause().getMessage());
+                throw (ActionFaultException) e.getCause();
+            }
+            breaker.recordFailure();
+            record(start, event, TrafficRecord.Outcome.ERROR, serviceId, actionId, inputs, null,
+                    String.valueOf(e.getCause()));
+            throw new CommunicationException("Action '" + actionId + "' failed", e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            breaker.recordCancelled();
+            event.complete(TrafficRecord.Outcome.ERROR, payloadSize(inputs));
+            Thread.currentThread().interrupt();
+            throw new CommunicationException("Action '" + actionId + "' interrupted");
+        }
+    }
+
+    /**
+     * Procedure to check whether the actions of a service report faults. A call of an action which doesn't is
+     * not proven to have been accepted by the TV.
+     *
+     * @return true if the TV is in the UPnP registry, so its faults raise {@link ActionFaultException}
+     */
+    public boolean reportsFaults(UpnpIOParticipant participant, String serviceId) {
+        return findService(participant, serviceId) != null;
+    }
+
+    /*
+     * Runs on the pool. A TV which answered with an error, SOAP fault or HTTP status, raises a fault, a TV which
+     * didn't answer at all a communication error.
+     */
+    private Map<String, String> execute(Action<?> action, Map<String, String> inputs) {
+        ActionInvocation<?> invocation = new ActionInvocation<>(action);
+        for (Map.Entry<String, String> input : inputs.entrySet()) {
+            invocation.setInput(input.getKey(), input.getValue());
+        }
+
+        Call call = new Call(invocation, upnpService.getControlPoint());
+        call.run();
+
+        if (call.failed) {
+            if (call.response == null) {
+                throw new CommunicationException("No response to action '" + action.getName() + "': " + call.message);
+            }
+            ActionException failure = invocation.getFailure();
+            String errorCode = failure != null ? String.valueOf(failure.getErrorCode())
+                    : String.valueOf(call.response.getStatusCode());
+            throw new ActionFaultException("Action '" + action.getName() + "' failed: " + call.message, errorCode);
+        }
+
+        Map<String, String> outputs = new HashMap<>();
+        for (ActionArgumentValue<?> output : invocation.getOutput()) {
+            if (output.getValue() != null) {
+                outputs.put(output.getArgument().getName(), output.getValue().toString());
+            }
+        }
+        return outputs;
+    }
+
+    /*
+     * Services are matched by id like the UPnP IO service does, whatever their namespace. Returns null if the TV
+     * is not in the registry, so its actions can't be invoked directly.
+     */
+    private Service<?, ?> findService(UpnpIOParticipant participant, String serviceId) {
+        if (upnpService == null || participant == null || participant.getUDN() == null) {
+            return null;
+        }
+        Device<?, ?, ?> device = upnpService.getRegistry().getDevice(new UDN(participant.getUDN()), false);
+        if (device == null) {
+            return null;
+        }
+        for (Service<?, ?> service : device.findServices()) {
+            if (service.getServiceId().getId().equals(serviceId)) {
+                return service;
+            }
+        }
+        return null;
+    }
+
+    private void record(long start, BindingEvents.Event event, TrafficRecord.Outcome outcome, String serviceId,
+            String actionId, Map<String, String> inputs, Map<String, String> outputs, String error) {
+        long latency = System.nanoTime() - start;
+        event.complete(outcome, payloadSize(inputs) + payloadSize(outputs));
+        if (error == null) {
+            journal.record(EventJournal.Type.ACTION, actionId, latency);
+        } else {
+            journal.record(EventJournal.Type.ERROR, actionId, error);
+        }
+        if (recorder != null) {
+            recorder.record(TrafficRecord.Kind.UPNP_ACTION, start, latency, outcome, serviceId,
+                    actionId, inputs, outputs, error);
+        }
+    }
+
+    private static long payloadSize(Map<String, String> arguments) {
+        long size = 0;
+        if (arguments != null) {
+            for (Map.Entry<String, String> argument : arguments.entrySet()) {
+                size += argument.getKey().length();
+                if (argument.getValue() != null) {
+                    size += argument.getValue().length();
+                }
+            }
+        }
+        return size;
+    }
+}
@@ -11,6 +11,7 @@ package org.openhab.binding.panasonictv2.internal.service.api;
 import java.util.List;
 
 import org.eclipse.smarthome.core.types.Command;
+import org.openhab.binding.panasonictv2.config.PanasonicTV2Configuration;
 
 /**
  * Interface for Panasonic TV services.
@@ -75,4 +76,12 @@ public interface PanasonicTV2Service {
      */
     public void clearCache();
 
+    /**
+     * Procedure for applying a changed configuration to the running service.
+     *
+     * @param configuration
+     *            New configuration of the TV.
+     */
+    public void applyConfiguration(PanasonicTV2Configuration configuration);
+
 }
@@ -23,4 +23,11 @@ public interface ValueReceiver {
      * @param value Value of the variable value.
      */
     public void valueReceived(String variable, State value);
+
+    /**
+     * Invoked when the TV reported a value again without a change.
+     *
+     * @param variable Name of the variable.
+     */
+    public void valueConfirmed(String variable);
 }